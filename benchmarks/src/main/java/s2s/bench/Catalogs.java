@@ -0,0 +1,107 @@
+package s2s.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import s2s.Track;
+
+/**
+ * Synthetic catalogs and sentences shared by the benchmarks. Titles are built
+ * from a fixed vocabulary with a seeded generator, so every run and every fork
+ * sees the same data.
+ *
+ * @author rzvoncek
+ *
+ */
+
+final class Catalogs {
+
+	private static final String[] VOCABULARY = {
+		"black", "dog", "ramble", "on", "fuel", "mama", "said", "orion", "welcome",
+		"home", "if", "i", "can't", "let", "it", "go", "out", "of", "my", "mind",
+		"the", "a", "love", "night", "day", "road", "fire", "rain", "heart", "blue",
+		"time", "river", "moon", "sun", "back", "in", "down", "to", "you", "me",
+		"song", "train", "wild", "world", "stone", "cold", "city", "light", "dream",
+		"heaven", "dance", "baby", "girl", "boy", "forever", "young", "little", "wing",
+		"born", "run", "paint", "hotel", "california", "bridge", "over", "water",
+		"smoke", "stairway", "whole", "lotta", "kashmir", "immigrant", "good", "times"
+	};
+
+	private Catalogs() {
+	}
+
+	/**
+	 * @param size number of tracks
+	 * @param seed
+	 * @return tracks with 1 to 4 word titles, lower case like the parsed ones
+	 */
+	static List<Track> tracks(int size, long seed) {
+
+		Random random = new Random(seed);
+		List<Track> tracks = new ArrayList<Track>(size);
+
+		for ( int i = 0; i < size; i++ )
+			tracks.add(new Track(phrase(random, 1 + random.nextInt(4)), "spotify:track:" + i));
+
+		return tracks;
+	}
+
+	/**
+	 * @param count number of sentences
+	 * @param words words per sentence
+	 * @param seed
+	 * @return sentences over the catalog vocabulary
+	 */
+	static String[] sentences(int count, int words, long seed) {
+
+		Random random = new Random(seed);
+		String[] sentences = new String[count];
+
+		for ( int i = 0; i < count; i++ )
+			sentences[i] = phrase(random, words);
+
+		return sentences;
+	}
+
+	/**
+	 * Writes the tracks as a catalog file, one <uri><TAB><title> per line.
+	 * @param tracks
+	 * @return the file, deleted on exit
+	 * @throws IOException
+	 */
+	static File writeCatalog(List<Track> tracks) throws IOException {
+
+		File file = File.createTempFile("s2s-catalog", ".tsv");
+		file.deleteOnExit();
+
+		Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			for ( Track t : tracks )
+				out.write(t.getUrl() + "\t" + t.getName() + "\n");
+		} finally {
+			out.close();
+		}
+
+		return file;
+	}
+
+	private static String phrase(Random random, int words) {
+
+		StringBuilder b = new StringBuilder();
+
+		for ( int i = 0; i < words; i++ ) {
+			if ( i > 0 )
+				b.append(' ');
+			b.append(VOCABULARY[random.nextInt(VOCABULARY.length)]);
+		}
+
+		return b.toString();
+	}
+
+}
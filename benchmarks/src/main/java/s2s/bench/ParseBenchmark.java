@@ -0,0 +1,81 @@
+package s2s.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import s2s.HttpTrackSource;
+import s2s.Track;
+import s2s.TrackSink;
+
+/**
+ * Parsing a recorded Spotify search response, into a list and straight
+ * into a sink.
+ *
+ * @author rzvoncek
+ *
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+	private static final String RESPONSE = "search-response.xml";
+
+	private byte[] response;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+
+		InputStream in = ParseBenchmark.class.getResourceAsStream(RESPONSE);
+		if ( in == null )
+			throw new IOException("missing resource " + RESPONSE);
+
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ( (read = in.read(buffer)) != -1 )
+				out.write(buffer, 0, read);
+			response = out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	@Benchmark
+	public List<Track> parse() throws IOException {
+		return HttpTrackSource.parse(new ByteArrayInputStream(response));
+	}
+
+	@Benchmark
+	public void parseToSink(final Blackhole bh) throws IOException {
+		HttpTrackSource.parse(new ByteArrayInputStream(response), new TrackSink() {
+			@Override
+			public void accept(Track t) {
+				bh.consume(t);
+			}
+		});
+	}
+
+}
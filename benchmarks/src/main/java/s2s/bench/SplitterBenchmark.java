@@ -0,0 +1,81 @@
+package s2s.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import s2s.Options;
+import s2s.SentenceSplitter;
+import s2s.TrackList;
+
+/**
+ * Splitting sentences end to end: tokenizing, querying the track sources,
+ * importing the found titles and segmenting. The tracks come from a local
+ * catalog instead of Spotify, so the numbers don't depend on the network.
+ *
+ * @author rzvoncek
+ *
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SplitterBenchmark {
+
+	private static final int SENTENCES = 1024;
+
+	@Param({ "10000" })
+	public int catalogSize;
+
+	@Param({ "8", "16" })
+	public int words;
+
+	@Param({ "false", "true" })
+	public boolean greedy;
+
+	private SentenceSplitter splitter;
+	private String[] sentences;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+
+		File catalog = Catalogs.writeCatalog(Catalogs.tracks(catalogSize, 42));
+
+		// the few distinct sentences would all be answered by the sentence cache
+		Options options = Options.parse(new String[] { "-catalog", catalog.getPath(), "-offline",
+				"-sentenceCache", "0" });
+		options.setGreedy(greedy);
+
+		splitter = new SentenceSplitter(options);
+		sentences = Catalogs.sentences(SENTENCES, words, 7);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		splitter.shutDown();
+	}
+
+	@Benchmark
+	public TrackList splitToTracks() {
+		return splitter.splitToTracks(sentences[next++ & (SENTENCES - 1)]);
+	}
+
+}
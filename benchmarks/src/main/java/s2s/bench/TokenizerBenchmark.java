@@ -0,0 +1,51 @@
+package s2s.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import s2s.InputReader;
+import s2s.SentenceSplitter;
+
+/**
+ * Normalizing input sentences and splitting them to words.
+ *
+ * @author rzvoncek
+ *
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenizerBenchmark {
+
+	@Param({
+		"black dog ramble on fuel",
+		"Mama said: Orion,  welcome HOME!",
+		"if I can\u2019t let it go out of my mind"
+	})
+	public String sentence;
+
+	@Benchmark
+	public String sanitize() {
+		return InputReader.sanitize(sentence);
+	}
+
+	@Benchmark
+	public String[] splitToWords() {
+		return SentenceSplitter.splitToWords(sentence);
+	}
+
+}
@@ -0,0 +1,83 @@
+package s2s.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import s2s.SentenceSplitter;
+import s2s.Track;
+import s2s.TrackTreeRoot;
+
+/**
+ * Building the title tree and looking up the longest known prefix of
+ * sentences, at several catalog sizes.
+ *
+ * @author rzvoncek
+ *
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrackTreeBenchmark {
+
+	private static final int SENTENCES = 1024;
+	private static final int WORDS = 8;
+
+	@Param({ "1000", "10000", "100000" })
+	public int catalogSize;
+
+	private List<Track> tracks;
+	private TrackTreeRoot tree;
+	private String[][] sentences;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+
+		tracks = Catalogs.tracks(catalogSize, 42);
+		tree = new TrackTreeRoot();
+		tree.importTracks(tracks);
+
+		String[] lines = Catalogs.sentences(SENTENCES, WORDS, 7);
+		sentences = new String[lines.length][];
+		for ( int i = 0; i < lines.length; i++ )
+			sentences[i] = SentenceSplitter.splitToWords(lines[i]);
+	}
+
+	/**
+	 * Imports the whole catalog into an empty tree.
+	 */
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public TrackTreeRoot importTracks() {
+		TrackTreeRoot fresh = new TrackTreeRoot();
+		fresh.importTracks(tracks);
+		return fresh;
+	}
+
+	/**
+	 * Finds the longest known prefix of one sentence.
+	 */
+	@Benchmark
+	public void findLongestPrefix(Blackhole bh) {
+		bh.consume(tree.findLongestPrefix(sentences[next++ & (SENTENCES - 1)]));
+	}
+
+}
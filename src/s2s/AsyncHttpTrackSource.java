@@ -0,0 +1,185 @@
+package s2s;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Track source querying the Spotify search web service through the
+ * non-blocking JDK HTTP client.
+ *
+ * No thread waits for a response, so the number of queries in flight is
+ * limited only by the remote side and the rate limit, not by a worker pool.
+ * Compressed responses are asked for and inflated here, they are parsed by
+ * HttpTrackSource.parse.
+ *
+ * Unlike in HttpTrackSource, the whole body is received before parsing
+ * starts: parsing while the body arrives would block a client thread on
+ * the network. Tracks still go into the sink one by one, as they are
+ * parsed, but not while the response is being received.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class AsyncHttpTrackSource implements AsyncTrackSource {
+
+	private final String baseURL;
+	private HttpClient httpClient;
+	private Duration timeout;
+
+	public AsyncHttpTrackSource() {
+		this(HttpTrackSource.DEFAULT_BASE_URL);
+	}
+
+	public AsyncHttpTrackSource(String baseURL) {
+		this.baseURL = baseURL;
+		setConnectTimeout(0);
+	}
+
+	/**
+	 * Limits the time to connect. Call before the first search.
+	 * @param timeoutMillis timeout in milliseconds, 0 waits forever
+	 */
+	public void setConnectTimeout(int timeoutMillis) {
+		HttpClient.Builder builder = HttpClient.newBuilder()
+				.followRedirects(HttpClient.Redirect.NORMAL);
+		if ( timeoutMillis > 0 )
+			builder.connectTimeout(Duration.ofMillis(timeoutMillis));
+		httpClient = builder.build();
+	}
+
+	/**
+	 * Limits the time to wait for a response.
+	 * @param timeoutMillis timeout in milliseconds, 0 waits forever
+	 */
+	public void setSocketTimeout(int timeoutMillis) {
+		timeout = timeoutMillis > 0 ? Duration.ofMillis(timeoutMillis) : null;
+	}
+
+	@Override
+	public CompletableFuture<List<Track>> searchAsync(String query) {
+
+		final List<Track> result = new ArrayList<Track>();
+
+		return searchAsync(query, new TrackSink() {
+			@Override
+			public void accept(Track t) {
+				result.add(t);
+			}
+		}).thenApply(new Function<Void,List<Track>>() {
+			@Override
+			public List<Track> apply(Void v) {
+				return result;
+			}
+		});
+	}
+
+	/**
+	 * Tracks are parsed from the received body straight into the sink.
+	 */
+	@Override
+	public CompletableFuture<Void> searchAsync(final String query, final TrackSink sink) {
+
+		HttpRequest request;
+
+		try {
+			HttpRequest.Builder builder = HttpRequest.newBuilder(
+					URI.create(baseURL + URLEncoder.encode(query, "UTF-8")))
+					.header("Accept-Encoding", "gzip,deflate").GET();
+			if ( timeout != null )
+				builder.timeout(timeout);
+			request = builder.build();
+		} catch (UnsupportedEncodingException e) {
+			CompletableFuture<Void> failed = new CompletableFuture<Void>();
+			failed.completeExceptionally(e);
+			return failed;
+		}
+
+		// the whole body is received before parsing starts, it counts as HTTP
+		final long start = System.nanoTime();
+
+		return httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+				.thenAccept(new Consumer<HttpResponse<byte[]>>() {
+					@Override
+					public void accept(HttpResponse<byte[]> response) {
+
+						Metrics.HTTP.recordSince(start);
+
+						if ( response.statusCode() == HttpTrackSource.SC_TOO_MANY_REQUESTS ) {
+							throw new CompletionException(new RateLimitedException(
+									"rate limit exceeded: " + query, HttpTrackSource.retryAfter(
+											response.headers().firstValue("Retry-After").orElse(null))));
+						}
+
+						// anything but a result is a failure, not a query without tracks
+						if ( !HttpTrackSource.isSuccess(response.statusCode()) ) {
+							throw new CompletionException(new IOException(
+									"search failed: " + response.statusCode() + ": " + query));
+						}
+
+						try {
+							long parsed = System.nanoTime();
+							HttpTrackSource.parse(decode(response), sink);
+							Metrics.PARSE.recordSince(parsed);
+						} catch (IOException e) {
+							throw new CompletionException(e);
+						}
+					}
+				});
+	}
+
+	@Override
+	public List<Track> search(String query) throws IOException {
+		try {
+			return searchAsync(query).get();
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			if ( e.getCause() instanceof IOException )
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * @return the response body, inflated if it is compressed
+	 * @throws IOException on an unknown content encoding
+	 */
+	private static InputStream decode(HttpResponse<byte[]> response) throws IOException {
+
+		InputStream body = new ByteArrayInputStream(response.body());
+		String encoding = response.headers().firstValue("Content-Encoding").orElse("identity");
+
+		if ( "gzip".equalsIgnoreCase(encoding) )
+			return new GZIPInputStream(body);
+		if ( "deflate".equalsIgnoreCase(encoding) )
+			return new InflaterInputStream(body);
+		if ( "identity".equalsIgnoreCase(encoding) )
+			return body;
+
+		throw new IOException("unsupported content encoding " + encoding);
+	}
+
+	@Override
+	public void shutDown() {
+		// the client's connections are closed when it is garbage collected
+	}
+
+}
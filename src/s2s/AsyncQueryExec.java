@@ -0,0 +1,158 @@
+package s2s;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Non-blocking counterpart of ParallelQueryExec.
+ *
+ * Reserves a permit from the shared rate limiter and starts the search once
+ * the permit is due, without a thread sleeping in the meantime. Refused and
+ * failed requests are retried as RetryPolicy says. Cancelled queries are
+ * skipped.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class AsyncQueryExec {
+
+	private String query;
+	private AsyncTrackSource source;
+	private SpotifyAdapter spotify;
+	private Future<?> owner;
+	private CompletableFuture<Void> sent;
+	private RetryPolicy retries;
+
+	public AsyncQueryExec(SpotifyAdapter sa, AsyncTrackSource s, String q) {
+		this(sa, s, q, null, null);
+	}
+
+	/**
+	 * @param owner the query is skipped once this future is cancelled, may be null
+	 * @param sent completed once the first request got its permit and is
+	 * 		sent, may be null
+	 */
+	public AsyncQueryExec(SpotifyAdapter sa, AsyncTrackSource s, String q, Future<?> owner,
+			CompletableFuture<Void> sent) {
+		query = q;
+		source = s;
+		spotify = sa;
+		this.owner = owner;
+		this.sent = sent;
+		retries = new RetryPolicy(sa);
+	}
+
+	/**
+	 * Starts the query.
+	 * @return future list of tracks, completes with null on failure
+	 */
+	public CompletableFuture<List<Track>> execute() {
+
+		final long start = System.nanoTime();
+		Metrics.QUERIES.increment();
+
+		return attempt(0, 0).whenComplete(new BiConsumer<List<Track>,Throwable>() {
+			@Override
+			public void accept(List<Track> tracks, Throwable error) {
+				Metrics.QUERY.recordSince(start);
+			}
+		});
+	}
+
+	/**
+	 * @param attempt number of previous attempts
+	 * @param failures number of previous failed attempts
+	 */
+	private CompletableFuture<List<Track>> attempt(final int attempt, final int failures) {
+
+		RateLimiter rateLimiter = spotify.getRateLimiter();
+		long wait = rateLimiter.reserve();
+		Metrics.THROTTLE.record(wait);
+		final long[] started = new long[1];
+
+		return CompletableFuture.supplyAsync(new Supplier<Void>() {
+					@Override
+					public Void get() {
+						return null;
+					}
+				}, CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS))
+				.thenCompose(new Function<Void,CompletableFuture<List<Track>>>() {
+					@Override
+					public CompletableFuture<List<Track>> apply(Void v) {
+						// nobody waits for the result any more
+						if ( owner != null && owner.isCancelled() )
+							return CompletableFuture.completedFuture(null);
+						if ( sent != null )
+							sent.complete(null);
+						started[0] = System.nanoTime();
+						final List<Track> tracks = new ArrayList<Track>();
+						TrackSink sink = spotify.ingestSink(tracks);
+						if ( sink == null )
+							return source.searchAsync(query);
+						return source.searchAsync(query, sink).thenApply(new Function<Void,List<Track>>() {
+							@Override
+							public List<Track> apply(Void v) {
+								return tracks;
+							}
+						});
+					}
+				})
+				.handle(new BiFunction<List<Track>,Throwable,CompletableFuture<List<Track>>>() {
+					@Override
+					public CompletableFuture<List<Track>> apply(List<Track> tracks, Throwable error) {
+
+						if ( error == null ) {
+							if ( tracks != null )
+								spotify.recordSuccess(System.nanoTime() - started[0]);
+							return CompletableFuture.completedFuture(tracks);
+						}
+
+						Throwable cause = error instanceof CompletionException && error.getCause() != null
+								? error.getCause() : error;
+
+						if ( cause instanceof RateLimitedException ) {
+							if ( retries.retryRateLimited((RateLimitedException) cause, attempt) )
+								return attempt(attempt + 1, failures);
+						} else {
+							long delay = retries.retryFailed(cause, failures);
+							if ( delay >= 0 )
+								return retry(attempt + 1, failures + 1, delay);
+						}
+
+						return CompletableFuture.completedFuture(null);
+					}
+				})
+				.thenCompose(new Function<CompletableFuture<List<Track>>,CompletableFuture<List<Track>>>() {
+					@Override
+					public CompletableFuture<List<Track>> apply(CompletableFuture<List<Track>> f) {
+						return f;
+					}
+				});
+	}
+
+	private CompletableFuture<List<Track>> retry(final int attempt, final int failures, long delay) {
+
+		return CompletableFuture.supplyAsync(new Supplier<Void>() {
+					@Override
+					public Void get() {
+						return null;
+					}
+				}, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS))
+				.thenCompose(new Function<Void,CompletableFuture<List<Track>>>() {
+					@Override
+					public CompletableFuture<List<Track>> apply(Void v) {
+						return attempt(attempt, failures);
+					}
+				});
+	}
+
+}
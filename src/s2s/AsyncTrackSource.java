@@ -0,0 +1,41 @@
+package s2s;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Track source able to search without blocking the calling thread.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public interface AsyncTrackSource extends TrackSource {
+
+	/**
+	 * Starts a search for tracks whose title matches the given query.
+	 * @param query
+	 * @return future list of found tracks; completes exceptionally with
+	 * 		an IOException if the source could not be queried
+	 */
+	public CompletableFuture<List<Track>> searchAsync(String query);
+
+	/**
+	 * Starts a search and passes the found tracks to the sink. Sources able
+	 * to stream their results override this.
+	 * @param query
+	 * @param sink receives the found tracks
+	 * @return future completed once all tracks were passed to the sink
+	 */
+	public default CompletableFuture<Void> searchAsync(String query, final TrackSink sink) {
+		return searchAsync(query).thenAccept(new Consumer<List<Track>>() {
+			@Override
+			public void accept(List<Track> tracks) {
+				for ( Track t : tracks )
+					sink.accept(t);
+			}
+		});
+	}
+
+}
@@ -0,0 +1,220 @@
+package s2s;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits the sentences of an input file into an output file, for batch jobs
+ * over files too large to go through the standard streams comfortably.
+ *
+ * The input is memory-mapped region by region and scanned for line ends in
+ * place. A line crossing the end of a region starts the next region, so no
+ * bytes are copied around. Each line is decoded straight from the mapped
+ * bytes into a reused character buffer. Lines end the same way as for
+ * BufferedReader.readLine and the output, written by TrackWriter, is what
+ * InputReader prints for the same input.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class BatchFileReader {
+
+	private static final int REGION_SIZE = 64 << 20;
+
+	private SentenceSplitter splitter;
+	private File inFile;
+	private File outFile;
+	private int parallelism;
+	private int window;
+	private int regionSize = REGION_SIZE;
+
+	private CharsetDecoder decoder;
+	private CharBuffer chars;
+	private TrackWriter out;
+	private SentencePipeline pipeline;
+
+	/**
+	 * @param splitter
+	 * @param inFile sentences, one per line, in the default charset
+	 * @param outFile created or truncated
+	 * @param parallelism number of sentences split at the same time
+	 * @param window maximal number of sentences read ahead
+	 */
+	public BatchFileReader(SentenceSplitter splitter, File inFile, File outFile,
+			int parallelism, int window) {
+		this.splitter = splitter;
+		this.inFile = inFile;
+		this.outFile = outFile;
+		this.parallelism = parallelism;
+		this.window = window;
+	}
+
+	/**
+	 * Lets tests cross region ends without files of REGION_SIZE.
+	 * @param bytes size of the mapped regions
+	 */
+	void setRegionSize(int bytes) {
+		regionSize = bytes;
+	}
+
+	/**
+	 * Splits all sentences of the input file and shuts the splitter down.
+	 * @throws Exception if a file can't be read or written, or a split failed
+	 */
+	public void run() throws Exception {
+
+		FileChannel in = null;
+
+		try {
+			decoder = createDecoder();
+			chars = CharBuffer.allocate(1024);
+
+			in = FileChannel.open(inFile.toPath(), StandardOpenOption.READ);
+			out = new TrackWriter(outFile);
+
+			if ( parallelism > 1 ) {
+				pipeline = new SentencePipeline(splitter, parallelism, window,
+						new SentencePipeline.ResultHandler() {
+							@Override
+							public void handle(List<Track> tracks) throws Exception {
+								out.write(tracks);
+							}
+						});
+			}
+
+			long size = in.size();
+			long position = 0;
+			long mapSize = regionSize;
+
+			while ( position < size ) {
+
+				long length = Math.min(mapSize, size - position);
+				MappedByteBuffer region = in.map(FileChannel.MapMode.READ_ONLY, position, length);
+
+				int consumed = scan(region, position + length == size);
+
+				if ( consumed == 0 ) {
+					// a line longer than the region, map a larger one
+					if ( mapSize == Integer.MAX_VALUE )
+						throw new IOException("line too long at byte " + position);
+					mapSize = Math.min(mapSize * 2, Integer.MAX_VALUE);
+				}
+
+				position += consumed;
+			}
+
+			if ( pipeline != null )
+				pipeline.finish();
+
+		} finally {
+			if ( pipeline != null )
+				pipeline.shutDown();
+			if ( out != null )
+				out.close();
+			if ( in != null )
+				in.close();
+			splitter.shutDown();
+		}
+	}
+
+	/**
+	 * Lines are found by their terminating bytes, which is safe only as long
+	 * as those bytes don't occur inside other characters.
+	 */
+	private static CharsetDecoder createDecoder() throws IOException {
+
+		Charset charset = Charset.defaultCharset();
+		if ( !Arrays.equals("\r\n".getBytes(charset), new byte[] { '\r', '\n' }) )
+			throw new IOException("batch mode needs an ASCII compatible charset, not " + charset);
+
+		// replaced the same way InputStreamReader replaces what it can't decode
+		return charset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	/**
+	 * Processes the complete lines of the region.
+	 * @param region
+	 * @param last true if the region ends where the file does
+	 * @return number of bytes processed, the rest is a line continuing
+	 * 		in the next region
+	 */
+	private int scan(MappedByteBuffer region, boolean last) throws Exception {
+
+		int limit = region.limit();
+		int start = 0;
+
+		for ( int i=0;i<limit;i++ ) {
+
+			byte b = region.get(i);
+			if ( b != '\n' && b != '\r' )
+				continue;
+
+			int end = i;
+			if ( b == '\r' ) {
+				// the '\n' of "\r\n" may be in the next region
+				if ( i + 1 == limit && !last )
+					break;
+				if ( i + 1 < limit && region.get(i+1) == '\n' )
+					i++;
+			}
+
+			line(region, start, end);
+			start = i + 1;
+		}
+
+		// the last line of the file has no line end
+		if ( last && start < limit ) {
+			line(region, start, limit);
+			start = limit;
+		}
+
+		return start;
+	}
+
+	private void line(MappedByteBuffer region, int start, int end) throws Exception {
+
+		int limit = region.limit();
+		region.limit(end).position(start);
+
+		chars.clear();
+		decoder.reset();
+		CoderResult result;
+		while ( (result = decoder.decode(region, chars, true)).isOverflow() )
+			growChars();
+		if ( result.isError() )
+			result.throwException();
+		while ( decoder.flush(chars).isOverflow() )
+			growChars();
+		chars.flip();
+
+		region.limit(limit);
+
+		String sentence = InputReader.sanitize(chars.toString());
+
+		if ( pipeline != null )
+			pipeline.submit(sentence);
+		else
+			out.write(splitter.splitToTracks(sentence));
+	}
+
+	private void growChars() {
+		CharBuffer grown = CharBuffer.allocate(chars.capacity() * 2);
+		chars.flip();
+		grown.put(chars);
+		chars = grown;
+	}
+
+}
@@ -0,0 +1,167 @@
+package s2s;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Local track source backed by a bulk-loaded catalog file.
+ *
+ * The catalog is a TSV file with one track per line in the format
+ * <spotify:track:uri><TAB><track title>. On load an inverted index
+ * word -> sorted track numbers is built, so a query is answered by
+ * intersecting the postings of its words, starting with the shortest one.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class CatalogTrackSource implements TrackSource {
+
+	private static final int MAX_RESULTS = 100;
+	private static final int[] NO_POSTINGS = new int[0];
+
+	private Track[] tracks;
+	private Map<String,int[]> postings;
+
+	public CatalogTrackSource(String catalogFile) throws IOException {
+		load(catalogFile);
+	}
+
+	/**
+	 * Reads the catalog file and builds the inverted index.
+	 * @param catalogFile
+	 * @throws IOException
+	 */
+	private void load(String catalogFile) throws IOException {
+
+		List<Track> loaded = new ArrayList<Track>();
+		Map<String,IntList> index = new HashMap<String,IntList>();
+
+		BufferedReader in = new BufferedReader(
+				new InputStreamReader(new FileInputStream(catalogFile), "UTF-8"));
+
+		try {
+			String line;
+			while ( (line = in.readLine()) != null ) {
+
+				int tab = line.indexOf('\t');
+				if ( tab <= 0 )
+					continue;
+
+				Track t = new Track(Track.cleanTitle(line.substring(tab+1)), line.substring(0, tab));
+				int trackNo = loaded.size();
+				loaded.add(t);
+
+				for ( String w : SentenceSplitter.splitToWords(t.getName()) ) {
+					if ( w.length() == 0 )
+						continue;
+					IntList posting = index.get(w);
+					if ( posting == null ) {
+						posting = new IntList();
+						index.put(w, posting);
+					}
+					// postings are filled in ascending order, skip repeated words
+					if ( posting.size == 0 || posting.last() != trackNo )
+						posting.add(trackNo);
+				}
+			}
+		} finally {
+			in.close();
+		}
+
+		tracks = loaded.toArray(new Track[loaded.size()]);
+		postings = new HashMap<String,int[]>(index.size()*2);
+		for ( Map.Entry<String,IntList> e : index.entrySet() ) {
+			postings.put(e.getKey(), e.getValue().toArray());
+		}
+	}
+
+	/**
+	 * Returns tracks whose title contains all words of the query.
+	 * @param query
+	 * @return
+	 */
+	@Override
+	public List<Track> search(String query) {
+
+		List<Track> result = new ArrayList<Track>();
+
+		String[] words = SentenceSplitter.splitToWords(query);
+		int[][] lists = new int[words.length][];
+		int shortest = -1;
+
+		for ( int i=0;i<words.length;i++ ) {
+			int[] p = postings.get(words[i]);
+			lists[i] = p == null ? NO_POSTINGS : p;
+			if ( words[i].length() == 0 ) {
+				lists[i] = null;
+				continue;
+			}
+			if ( shortest == -1 || lists[i].length < lists[shortest].length )
+				shortest = i;
+		}
+
+		if ( shortest == -1 )
+			return result;
+
+		for ( int trackNo : lists[shortest] ) {
+
+			boolean all = true;
+			for ( int i=0;i<lists.length && all;i++ ) {
+				if ( i != shortest && lists[i] != null )
+					all = Arrays.binarySearch(lists[i], trackNo) >= 0;
+			}
+
+			if ( all ) {
+				result.add(tracks[trackNo]);
+				if ( result.size() == MAX_RESULTS )
+					break;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return number of tracks in the catalog
+	 */
+	public int size() {
+		return tracks.length;
+	}
+
+	@Override
+	public void shutDown() {
+		// nothing to release
+	}
+
+	/**
+	 * Growable array of primitive ints used while building the postings.
+	 */
+	private static class IntList {
+
+		int[] values = new int[4];
+		int size;
+
+		void add(int v) {
+			if ( size == values.length )
+				values = Arrays.copyOf(values, size*2);
+			values[size++] = v;
+		}
+
+		int last() {
+			return values[size-1];
+		}
+
+		int[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+
+}
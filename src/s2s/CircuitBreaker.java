@@ -0,0 +1,201 @@
+package s2s;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Circuit breaker guarding the remote search endpoint.
+ *
+ * While CLOSED, the outcomes of the most recent requests are kept and the
+ * breaker trips to OPEN when too many of them failed or were slow. An OPEN
+ * breaker refuses all requests, so sentences are split by the known titles
+ * only. After the open period a single probe request is let through
+ * (HALF_OPEN): its success closes the breaker, its failure opens it again
+ * for a longer period. Open periods grow exponentially with jitter.
+ * Successes of requests sent before the probe are late answers and don't
+ * close the breaker.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class CircuitBreaker {
+
+	public enum State { CLOSED, OPEN, HALF_OPEN }
+
+	private final int minCalls;
+	private final double failureRateThreshold;
+	private final double slowRateThreshold;
+	private final long slowCallNanos;
+	private final long baseOpenMillis;
+	private final long maxOpenMillis;
+
+	// outcomes of the recent calls, a ring buffer
+	private final boolean[] failed;
+	private final boolean[] slow;
+	private int next;
+	private int calls;
+	private int failures;
+	private int slowCalls;
+
+	private State state;
+	private int consecutiveTrips;
+	private long openMillis;
+	private long openUntil;
+	private long probeUntil;
+	private long probeSent;
+	private long tripCount;
+
+	/**
+	 * @param window number of recent calls the rates are computed from
+	 * @param minCalls calls needed before the breaker may trip
+	 * @param failureRateThreshold failed calls ratio tripping the breaker
+	 * @param slowRateThreshold slow calls ratio tripping the breaker
+	 * @param slowCallNanos calls taking at least this long are slow
+	 * @param baseOpenMillis first open period
+	 * @param maxOpenMillis longest open period
+	 */
+	public CircuitBreaker(int window, int minCalls, double failureRateThreshold,
+			double slowRateThreshold, long slowCallNanos, long baseOpenMillis,
+			long maxOpenMillis) {
+
+		this.minCalls = Math.min(minCalls, window);
+		this.failureRateThreshold = failureRateThreshold;
+		this.slowRateThreshold = slowRateThreshold;
+		this.slowCallNanos = slowCallNanos;
+		this.baseOpenMillis = baseOpenMillis;
+		this.maxOpenMillis = maxOpenMillis;
+
+		failed = new boolean[window];
+		slow = new boolean[window];
+		state = State.CLOSED;
+	}
+
+	/**
+	 * Asks whether a request may be sent now. In HALF_OPEN state only one
+	 * probe is allowed per open period.
+	 * @return true if the request may be sent
+	 */
+	public synchronized boolean allowRequest() {
+
+		long now = System.currentTimeMillis();
+
+		switch ( state ) {
+		case OPEN:
+			if ( now < openUntil )
+				return false;
+			state = State.HALF_OPEN;
+			probeUntil = now + openMillis;
+			probeSent = System.nanoTime();
+			return true;
+		case HALF_OPEN:
+			// the probe did not report back in time, allow another one
+			if ( now < probeUntil )
+				return false;
+			probeUntil = now + openMillis;
+			probeSent = System.nanoTime();
+			return true;
+		default:
+			return true;
+		}
+	}
+
+	/**
+	 * @param nanos time the successful request took, it was sent that long ago
+	 */
+	public synchronized void recordSuccess(long nanos) {
+
+		boolean isSlow = nanos >= slowCallNanos;
+
+		if ( state == State.HALF_OPEN ) {
+			// only the answer to the probe, or a request sent after it, decides
+			if ( System.nanoTime() - nanos - probeSent < 0 )
+				return;
+			if ( isSlow )
+				trip();
+			else
+				close();
+		} else if ( state == State.CLOSED ) {
+			record(false, isSlow);
+		}
+		// answers to requests sent before the breaker opened are ignored
+	}
+
+	public synchronized void recordFailure() {
+
+		if ( state == State.HALF_OPEN )
+			trip();
+		else if ( state == State.CLOSED )
+			record(true, false);
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * @return number of times the breaker opened
+	 */
+	public synchronized long getTripCount() {
+		return tripCount;
+	}
+
+	private void record(boolean isFailure, boolean isSlow) {
+
+		if ( calls == failed.length ) {
+			if ( failed[next] )
+				failures--;
+			if ( slow[next] )
+				slowCalls--;
+		} else {
+			calls++;
+		}
+
+		failed[next] = isFailure;
+		slow[next] = isSlow;
+		if ( isFailure )
+			failures++;
+		if ( isSlow )
+			slowCalls++;
+		next = (next + 1) % failed.length;
+
+		if ( calls >= minCalls && ( failures >= failureRateThreshold * calls
+				|| slowCalls >= slowRateThreshold * calls ) ) {
+			trip();
+		}
+	}
+
+	private void trip() {
+		state = State.OPEN;
+		openMillis = backoff(baseOpenMillis, maxOpenMillis, consecutiveTrips++);
+		openUntil = System.currentTimeMillis() + openMillis;
+		tripCount++;
+		reset();
+	}
+
+	private void close() {
+		state = State.CLOSED;
+		consecutiveTrips = 0;
+		reset();
+	}
+
+	private void reset() {
+		next = 0;
+		calls = 0;
+		failures = 0;
+		slowCalls = 0;
+	}
+
+	/**
+	 * Exponential backoff with jitter: a random delay between the half and
+	 * the whole of base*2^attempt, at most max.
+	 * @param base first delay
+	 * @param max longest delay
+	 * @param attempt number of previous attempts
+	 * @return delay
+	 */
+	public static long backoff(long base, long max, int attempt) {
+		long delay = Math.min(max, base << Math.min(attempt, 30));
+		return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+	}
+
+}
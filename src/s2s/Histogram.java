@@ -0,0 +1,187 @@
+package s2s;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with log-linear buckets, the way HdrHistogram
+ * lays them out: every power of two is split into SUB_BUCKETS linear buckets,
+ * so any recorded value is reported with a relative error below 1/SUB_BUCKETS
+ * while the whole range of a long fits in about a thousand counters.
+ *
+ * Recording is one counter increment plus two adders, cheap enough to stay
+ * on in production. Percentiles are read from a snapshot that is not atomic
+ * with respect to concurrent recording, which is fine for monitoring.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class Histogram implements HistogramMBean {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final String name;
+	private final AtomicLongArray counts;
+	private final LongAdder count;
+	private final LongAdder total;
+	private final AtomicLong max;
+
+	/**
+	 * @param name stage name used in reports
+	 */
+	public Histogram(String name) {
+		this.name = name;
+		counts = new AtomicLongArray(BUCKETS);
+		count = new LongAdder();
+		total = new LongAdder();
+		max = new AtomicLong();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @param nanos duration of one pass through the stage
+	 */
+	public void record(long nanos) {
+
+		if ( nanos < 0 )
+			nanos = 0;
+
+		counts.incrementAndGet(bucket(nanos));
+		count.increment();
+		total.add(nanos);
+
+		long m;
+		while ( nanos > (m = max.get()) && !max.compareAndSet(m, nanos) )
+			;
+	}
+
+	/**
+	 * Records the time passed since the given System.nanoTime() reading.
+	 * @param startNanos
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Values below SUB_BUCKETS get a bucket each, larger ones are bucketed by
+	 * their highest bit and the SUB_BUCKET_BITS bits below it.
+	 */
+	static int bucket(long value) {
+
+		if ( value < SUB_BUCKETS )
+			return (int) value;
+
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+
+		return (shift + 1) * SUB_BUCKETS + sub;
+	}
+
+	/**
+	 * @return highest value falling into the bucket
+	 */
+	static long highestValue(int bucket) {
+
+		if ( bucket < SUB_BUCKETS )
+			return bucket;
+
+		int shift = bucket / SUB_BUCKETS - 1;
+		long sub = bucket % SUB_BUCKETS;
+
+		return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+	}
+
+	@Override
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * @return sum of all recorded values
+	 */
+	public long getTotalNanos() {
+		return total.sum();
+	}
+
+	public long getMaxNanos() {
+		return max.get();
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return value not exceeded by the given percentage of the recorded
+	 * 		values, 0 if there are none
+	 */
+	public long percentile(double percentile) {
+
+		long[] snapshot = new long[BUCKETS];
+		long n = 0;
+		for ( int i=0;i<BUCKETS;i++ ) {
+			snapshot[i] = counts.get(i);
+			n += snapshot[i];
+		}
+
+		if ( n == 0 )
+			return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+		long seen = 0;
+		for ( int i=0;i<BUCKETS;i++ ) {
+			seen += snapshot[i];
+			if ( seen >= rank )
+				return Math.min(highestValue(i), max.get());
+		}
+
+		return max.get();
+	}
+
+	@Override
+	public double getMeanMillis() {
+		long n = count.sum();
+		return n == 0 ? 0 : total.sum() / 1e6 / n;
+	}
+
+	@Override
+	public double getMedianMillis() {
+		return percentile(50) / 1e6;
+	}
+
+	@Override
+	public double get90thPercentileMillis() {
+		return percentile(90) / 1e6;
+	}
+
+	@Override
+	public double get99thPercentileMillis() {
+		return percentile(99) / 1e6;
+	}
+
+	@Override
+	public double get999thPercentileMillis() {
+		return percentile(99.9) / 1e6;
+	}
+
+	@Override
+	public double getMaxMillis() {
+		return max.get() / 1e6;
+	}
+
+	/**
+	 * @return one line summary in milliseconds
+	 */
+	@Override
+	public String toString() {
+		return String.format("%s: %d calls, mean %.3f, p50 %.3f, p90 %.3f, p99 %.3f, max %.3f ms",
+				name, getCount(), getMeanMillis(), getMedianMillis(),
+				get90thPercentileMillis(), get99thPercentileMillis(), getMaxMillis());
+	}
+
+}
@@ -0,0 +1,26 @@
+package s2s;
+
+/**
+ * Latencies of one processing stage as seen over JMX, see Histogram.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public interface HistogramMBean {
+
+	public long getCount();
+
+	public double getMeanMillis();
+
+	public double getMedianMillis();
+
+	public double get90thPercentileMillis();
+
+	public double get99thPercentileMillis();
+
+	public double get999thPercentileMillis();
+
+	public double getMaxMillis();
+
+}
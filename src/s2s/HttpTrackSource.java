@@ -0,0 +1,445 @@
+package s2s;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.cache.CacheResponseStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.params.HttpClientParams;
+import org.apache.http.impl.client.DecompressingHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.cache.CacheConfig;
+import org.apache.http.impl.client.cache.CachingHttpClient;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * Track source querying the Spotify search web service.
+ * Based on Apache's caching HTTP client over a pool of keep-alive
+ * connections, asks for compressed responses. Responses are cached off
+ * the heap by OffHeapCacheStorage. Takes care of parsing
+ * the received XML document as well.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class HttpTrackSource implements TrackSource {
+
+	public static final String DEFAULT_BASE_URL = "http://ws.spotify.com/search/1/track?q=";
+
+	private static final int CACHE_ENTRY_MAX_CNT = 500;
+	private static final int CACHE_ENTRY_MAX_SIZE = 3145728; // 3 MB
+
+	/** as many connections as there are query workers */
+	public static final int DEFAULT_MAX_PER_ROUTE = Runtime.getRuntime().availableProcessors()*2;
+	public static final int DEFAULT_MAX_TOTAL = DEFAULT_MAX_PER_ROUTE*2;
+	public static final long DEFAULT_KEEP_ALIVE = 30000; // ms
+	public static final long DEFAULT_CACHE_BYTES = 64L << 20;
+
+	/** status codes and defaults shared with AsyncHttpTrackSource */
+	static final int SC_TOO_MANY_REQUESTS = 429;
+	private static final int SC_OK = 200;
+	private static final int SC_MULTIPLE_CHOICES = 300;
+	private static final long DEFAULT_RETRY_AFTER = 1000; // ms
+
+	private static XMLInputFactory factory = XMLInputFactory.newInstance();
+
+	private final String baseURL;
+	private CacheConfig cacheConfig;
+	private MeteredConnectionManager connectionManager;
+	private OffHeapCacheStorage cacheStorage;
+	private DefaultHttpClient backendClient;
+	private HttpClient httpClient;
+	private long keepAlive = DEFAULT_KEEP_ALIVE;
+
+	public HttpTrackSource() {
+		this(DEFAULT_BASE_URL);
+	}
+
+	public HttpTrackSource(String baseURL) {
+		this(baseURL, DEFAULT_MAX_PER_ROUTE, DEFAULT_MAX_TOTAL);
+	}
+
+	/**
+	 * @param baseURL search URL the query is appended to
+	 * @param maxPerRoute maximal number of connections to one host
+	 * @param maxTotal maximal number of connections
+	 */
+	public HttpTrackSource(String baseURL, int maxPerRoute, int maxTotal) {
+		this(baseURL, maxPerRoute, maxTotal, DEFAULT_CACHE_BYTES);
+	}
+
+	/**
+	 * @param baseURL search URL the query is appended to
+	 * @param maxPerRoute maximal number of connections to one host
+	 * @param maxTotal maximal number of connections
+	 * @param cacheBytes size of the off-heap response cache, 0 for a heap
+	 * 		cache of CACHE_ENTRY_MAX_CNT responses
+	 */
+	public HttpTrackSource(String baseURL, int maxPerRoute, int maxTotal, long cacheBytes) {
+		this.baseURL = baseURL;
+
+		cacheConfig = new CacheConfig();
+		cacheConfig.setMaxCacheEntries(CACHE_ENTRY_MAX_CNT);
+		cacheConfig.setMaxObjectSize(CACHE_ENTRY_MAX_SIZE);
+
+		connectionManager = new MeteredConnectionManager();
+		connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+		connectionManager.setMaxTotal(Math.max(maxTotal, maxPerRoute));
+
+		backendClient = new DefaultHttpClient(connectionManager);
+		// keep idle connections as long as the server allows, or keepAlive
+		backendClient.setKeepAliveStrategy(new DefaultConnectionKeepAliveStrategy() {
+			@Override
+			public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+				long duration = super.getKeepAliveDuration(response, context);
+				return duration > 0 ? duration : keepAlive;
+			}
+		});
+
+		CachingHttpClient cachingClient;
+		if ( cacheBytes > 0 ) {
+			cacheStorage = new OffHeapCacheStorage(cacheBytes);
+			cachingClient = new CachingHttpClient(backendClient, cacheStorage, cacheConfig);
+		} else {
+			cachingClient = new CachingHttpClient(backendClient, cacheConfig);
+		}
+
+		// responses are cached compressed and inflated on every use
+		httpClient = new DecompressingHttpClient(cachingClient);
+	}
+
+	/**
+	 * Limits the time to connect, including the wait for a pooled connection.
+	 * @param timeoutMillis timeout in milliseconds, 0 waits forever
+	 */
+	public void setConnectTimeout(int timeoutMillis) {
+		HttpConnectionParams.setConnectionTimeout(backendClient.getParams(), timeoutMillis);
+		HttpClientParams.setConnectionManagerTimeout(backendClient.getParams(), timeoutMillis);
+	}
+
+	/**
+	 * Limits the time to wait for response data.
+	 * @param timeoutMillis timeout in milliseconds, 0 waits forever
+	 */
+	public void setSocketTimeout(int timeoutMillis) {
+		HttpConnectionParams.setSoTimeout(backendClient.getParams(), timeoutMillis);
+	}
+
+	/**
+	 * @param keepAliveMillis how long idle connections are kept when the
+	 * 		server does not say
+	 */
+	public void setKeepAlive(long keepAliveMillis) {
+		keepAlive = keepAliveMillis;
+	}
+
+	/**
+	 * @return the off-heap response cache, null if the heap cache is used
+	 */
+	public OffHeapCacheStorage getCacheStorage() {
+		return cacheStorage;
+	}
+
+	/**
+	 * @return the connection pool, with its lease statistics
+	 */
+	public MeteredConnectionManager getConnectionManager() {
+		return connectionManager;
+	}
+
+	@Override
+	public List<Track> search(String query) throws IOException {
+
+		final List<Track> result = new ArrayList<Track>();
+
+		search(query, new TrackSink() {
+			@Override
+			public void accept(Track t) {
+				result.add(t);
+			}
+		});
+
+		return result;
+	}
+
+	/**
+	 * Tracks are passed to the sink while the response is being read.
+	 */
+	@Override
+	public void search(String query, TrackSink sink) throws IOException {
+
+		HttpGet httpRequest;
+		HttpResponse httpResponse;
+		HttpEntity httpEntity;
+		HttpContext httpContext;
+
+		httpRequest = new HttpGet(baseURL + URLEncoder.encode(query, "UTF-8"));
+
+		httpContext = new BasicHttpContext();
+		long start = System.nanoTime();
+		httpResponse = httpClient.execute(httpRequest, httpContext);
+		Metrics.HTTP.recordSince(start);
+		Metrics.recordCacheStatus((CacheResponseStatus)
+				httpContext.getAttribute(CachingHttpClient.CACHE_RESPONSE_STATUS));
+
+		if ( httpResponse.getStatusLine().getStatusCode() == SC_TOO_MANY_REQUESTS ) {
+			EntityUtils.consume(httpResponse.getEntity());
+			Header retryAfter = httpResponse.getFirstHeader("Retry-After");
+			throw new RateLimitedException("rate limit exceeded: " + query,
+					retryAfter(retryAfter == null ? null : retryAfter.getValue()));
+		}
+
+		// anything but a result is a failure, not a query without tracks
+		if ( !isSuccess(httpResponse.getStatusLine().getStatusCode()) ) {
+			EntityUtils.consume(httpResponse.getEntity());
+			throw new IOException("search failed: " + httpResponse.getStatusLine() + ": " + query);
+		}
+
+		// responses served from the HTTP cache are parsed as well, the
+		// caller caches the parsed result and needs the complete list
+		httpEntity = httpResponse.getEntity();
+		if ( httpEntity != null ) {
+			start = System.nanoTime();
+			parse(httpEntity.getContent(), sink);
+			Metrics.PARSE.recordSince(start);
+		}
+
+		EntityUtils.consume(httpEntity);
+	}
+
+	/**
+	 * @param status HTTP status code
+	 * @return true for a 2xx status
+	 */
+	static boolean isSuccess(int status) {
+		return status >= SC_OK && status < SC_MULTIPLE_CHOICES;
+	}
+
+	/**
+	 * @param retryAfter Retry-After header in seconds, may be null
+	 * @return requested delay in milliseconds
+	 */
+	static long retryAfter(String retryAfter) {
+		if ( retryAfter != null ) {
+			try {
+				return Long.parseLong(retryAfter.trim()) * 1000;
+			} catch (NumberFormatException e) {
+				// HTTP date, fall back to the default
+			}
+		}
+		return DEFAULT_RETRY_AFTER;
+	}
+
+	/**
+	 * Parse the contents of received HTML document.
+	 * @param inStream
+	 * @return
+	 * @throws IOException if the document can't be read or is malformed
+	 */
+	public static List<Track> parse(InputStream inStream) throws IOException {
+
+		final List<Track> tracks = new ArrayList<Track>();
+
+		parse(inStream, new TrackSink() {
+			@Override
+			public void accept(Track t) {
+				tracks.add(t);
+			}
+		});
+
+		return tracks;
+	}
+
+	/**
+	 * Parse the contents of received HTML document, passing every track to
+	 * the sink as soon as its name is read.
+	 * @param inStream
+	 * @param sink
+	 * @throws IOException if the document can't be read or is malformed;
+	 * 		the sink may have received some of the tracks already
+	 */
+	public static void parse(InputStream inStream, TrackSink sink) throws IOException {
+
+		TitleBuffer title = new TitleBuffer();
+
+		try {
+
+			XMLStreamReader streamReader = factory.createXMLStreamReader(inStream);
+
+			while (streamReader.hasNext()) {
+
+				streamReader.next();
+
+				// found a start element
+				if (streamReader.getEventType() == XMLStreamReader.START_ELEMENT) {
+
+					String elementName = streamReader.getLocalName();
+
+					// the started element is a track!
+					if ("track".equals(elementName)) {
+						String trackUrl = streamReader.getAttributeValue(0);
+
+						// parse the rest of the track
+						Track t = parseTrack(streamReader,trackUrl,title);
+						if ( t != null ) {
+							sink.accept(t);
+						}
+					}
+				}
+
+			}
+
+		} catch (XMLStreamException e) {
+			// a timed out or truncated body, the result is incomplete
+			throw new IOException("can't parse response: " + e.getMessage(), e);
+		}
+
+	}
+
+	/**
+	 * Parses the details of a track element. Currently searches only for the track
+	 * name.
+	 * @param streamReader
+	 * @param trackUrl
+	 * @param title buffer reused for the track names
+	 * @return
+	 * @throws XMLStreamException
+	 */
+	private static Track parseTrack(XMLStreamReader streamReader, String trackUrl,
+			TitleBuffer title) throws XMLStreamException {
+
+		while (streamReader.hasNext()) {
+
+			streamReader.next();
+
+			// the track element ended before there was a name element
+	        if (streamReader.getEventType() == XMLStreamReader.END_ELEMENT) {
+	            String elementName = streamReader.getLocalName();
+	            if ("track".equals(elementName)) {
+	              return null;
+	            }
+
+	        // some other element within the track element
+	        } else if (streamReader.getEventType() == XMLStreamReader.START_ELEMENT) {
+
+	        	String elementName = streamReader.getLocalName();
+
+	        	// yeah, it's the track name
+	        	if ("name".equals(elementName)) {
+	        		readTitle(streamReader, title);
+	        		return new Track(title.toString(),trackUrl);
+	        	}
+	        }
+
+	    }
+
+		return null;
+	}
+
+	/**
+	 * Reads the text of the current element into the buffer, the same way as
+	 * Track.cleanTitle: lower case, cut at " -" or "(". The text is taken
+	 * straight from the parser's character array.
+	 * @param streamReader positioned at the start of the name element
+	 * @param title
+	 * @throws XMLStreamException
+	 */
+	private static void readTitle(XMLStreamReader streamReader, TitleBuffer title)
+			throws XMLStreamException {
+
+		title.clear();
+
+		while (streamReader.hasNext()) {
+
+			int event = streamReader.next();
+
+			if ( event == XMLStreamReader.END_ELEMENT )
+				break;
+
+			if ( event == XMLStreamReader.CHARACTERS || event == XMLStreamReader.CDATA
+					|| event == XMLStreamReader.SPACE ) {
+				title.append(streamReader.getTextCharacters(),
+						streamReader.getTextStart(), streamReader.getTextLength());
+			} else if ( event == XMLStreamReader.ENTITY_REFERENCE ) {
+				String text = streamReader.getText();
+				title.append(text.toCharArray(), 0, text.length());
+			}
+		}
+	}
+
+	/**
+	 * Growable character buffer for track names. Remembers where the name is
+	 * to be cut and lower-cases it char by char, unless it has characters
+	 * lower-cased depending on their context or the locale (see Tokenizer),
+	 * which go through Track.cleanTitle.
+	 */
+	private static class TitleBuffer {
+
+		private char[] chars = new char[64];
+		private int length;
+		private int cut;
+		private boolean contextual;
+
+		void clear() {
+			length = 0;
+			cut = -1;
+			contextual = false;
+		}
+
+		void append(char[] text, int start, int len) {
+
+			if ( length + len > chars.length )
+				chars = Arrays.copyOf(chars, Math.max(chars.length * 2, length + len));
+
+			for ( int i=0;i<len;i++ ) {
+				char c = text[start + i];
+				chars[length] = c;
+				if ( !contextual && Tokenizer.isContextual(c) )
+					contextual = true;
+				// '(', '-' and ' ' are the same in any case
+				if ( cut == -1 ) {
+					if ( c == '(' )
+						cut = length;
+					else if ( c == '-' && length > 0 && chars[length - 1] == ' ' )
+						cut = length - 1;
+				}
+				length++;
+			}
+		}
+
+		@Override
+		public String toString() {
+
+			if ( contextual )
+				return Track.cleanTitle(new String(chars, 0, length));
+
+			int end = cut == -1 ? length : cut;
+			for ( int i=0;i<end;i++ )
+				chars[i] = Character.toLowerCase(chars[i]);
+			return new String(chars, 0, end);
+		}
+	}
+
+	@Override
+	public void shutDown() {
+		connectionManager.shutdown();
+	}
+
+}
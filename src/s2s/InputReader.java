@@ -17,14 +17,33 @@ public class InputReader extends Thread {
 
 	BufferedReader in;
 	SentenceSplitter splitter;
+	private int parallelism;
+	private int window;
 	
 	public InputReader(SentenceSplitter splitter) {
+		this(splitter, 1, 1);
+	}
+	
+	/**
+	 * @param splitter
+	 * @param parallelism number of sentences split at the same time,
+	 * 		1 processes the input line by line
+	 * @param window maximal number of sentences read ahead
+	 */
+	public InputReader(SentenceSplitter splitter, int parallelism, int window) {
 		in = new BufferedReader(new InputStreamReader(System.in));
 		this.splitter = splitter;
+		this.parallelism = parallelism;
+		this.window = window;
 	}
 	
 	public void run() {
 		
+		if ( parallelism > 1 ) {
+			runPipelined();
+			return;
+		}
+		
 		String sentence = "";
 
 		try { 
@@ -32,7 +51,7 @@ public class InputReader extends Thread {
   			while ( (sentence = in.readLine()) != null ) {
   				try { 
   					sentence = InputReader.sanitize(sentence);
-  					System.out.println(splitToTracks(sentence));
+  					print(splitter.splitToTracks(sentence));
   				} catch (Exception e) {
   					// ignored...
   					return;
@@ -53,32 +72,76 @@ public class InputReader extends Thread {
 			
 	}
 
+	/**
+	 * Reads ahead and splits up to parallelism sentences at once, printing
+	 * the results in input order.
+	 */
+	private void runPipelined() {
+		
+		SentencePipeline pipeline = new SentencePipeline(splitter, parallelism, window,
+				new SentencePipeline.ResultHandler() {
+					@Override
+					public void handle(List<Track> tracks) {
+						print(tracks);
+					}
+				});
+		
+		String sentence;
+		
+		try {
+			while ( (sentence = in.readLine()) != null ) {
+				pipeline.submit(InputReader.sanitize(sentence));
+			}
+			pipeline.finish();
+		} catch (Exception e) {
+			// ignored...
+			return;
+		}
+		
+		// shut down worker threads from the pipeline and the splitter
+		finally {
+			pipeline.shutDown();
+			splitter.shutDown();
+		}
+	}
+
 	/**
 	 * Removes unwanted characters from the given sentence.
 	 * @param sentence Input sentence
 	 * @return sentence striped from unwanted characters
 	 */
 	public static String  sanitize(String sentence) {
-		return sentence
-				.toLowerCase()
-				.replaceAll(",","")
-				.replaceAll("'", "'")
-				.replaceAll("`", "'")
-				.replaceAll(":", "");
+		// lower case, no ',' and ':', '`' and the typographic apostrophe as '
+		return Tokenizer.normalize(sentence);
+	}
+
+	/**
+	 * Prints the split sentence, warns when it is partial.
+	 * @param tracks
+	 */
+	private static void print(List<Track> tracks) {
+		warnIfPartial(tracks);
+		System.out.println(format(tracks));
+	}
+
+	/**
+	 * Warns on standard error when the split sentence is partial.
+	 * @param tracks
+	 */
+	static void warnIfPartial(List<Track> tracks) {
+		if ( tracks instanceof TrackList && ((TrackList) tracks).isPartial() )
+			System.err.println("WARNING: not all remote queries answered, the split may be incomplete");
 	}
 
 	/**
-	 * Actually calls the splitting method. Receives list of (matched) tracks.
 	 * Formats the list of tracks to printable string.
-	 * @param sentence
+	 * @param tracks
 	 * @return
 	 */
-	private String splitToTracks(String sentence) {
+	static String format(List<Track> tracks) {
 
 		StringBuffer result = new StringBuffer();
 
-		List<Track> tracks = splitter.splitToTracks(sentence);
-
 		for ( Track t : tracks ) {
 			result.append( String.format("\t%36s ",t.getUrl()) );
 			result.append(t.getName() + "\n");
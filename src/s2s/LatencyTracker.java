@@ -0,0 +1,81 @@
+package s2s;
+
+/**
+ * Keeps the latencies of the most recent remote requests and estimates
+ * their percentiles, used to decide when a slow request gets hedged.
+ *
+ * The window is counted in the log-linear buckets of Histogram, so an
+ * estimate walks the bucket counts instead of sorting the window, and it
+ * is only computed again after new latencies were recorded. Estimates are
+ * rounded up to the top of their bucket, by less than 1/16.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class LatencyTracker {
+
+	private final long[] samples;
+	private final int[] counts;
+	private final int minSamples;
+	private int next;
+	private int count;
+
+	// the last estimate, valid until the next latency is recorded
+	private double lastPercentile = -1;
+	private long lastEstimate;
+
+	/**
+	 * @param window number of most recent latencies kept
+	 * @param minSamples latencies needed before percentiles are estimated
+	 */
+	public LatencyTracker(int window, int minSamples) {
+		samples = new long[window];
+		counts = new int[Histogram.BUCKETS];
+		this.minSamples = minSamples;
+	}
+
+	/**
+	 * @param nanos latency of a successful request
+	 */
+	public synchronized void record(long nanos) {
+
+		if ( nanos < 0 )
+			nanos = 0;
+
+		if ( count == samples.length )
+			counts[Histogram.bucket(samples[next])]--;
+		else
+			count++;
+
+		samples[next] = nanos;
+		counts[Histogram.bucket(nanos)]++;
+		next = (next + 1) % samples.length;
+		lastPercentile = -1;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return latency in nanoseconds not exceeded by the given percentage of
+	 * 		the recent requests, -1 if there are not enough samples yet
+	 */
+	public synchronized long percentile(double percentile) {
+
+		if ( count < minSamples )
+			return -1;
+
+		if ( percentile == lastPercentile )
+			return lastEstimate;
+
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		int bucket = 0;
+		while ( bucket < counts.length - 1 && ( seen += counts[bucket] ) < rank )
+			bucket++;
+
+		lastPercentile = percentile;
+		lastEstimate = Histogram.highestValue(bucket);
+		return lastEstimate;
+	}
+
+}
@@ -1,5 +1,8 @@
 package s2s;
 
+import java.io.File;
+import java.io.IOException;
+
 /**
  * sentence2songs - build given sentence out of song titles
  * 
@@ -10,8 +13,10 @@ package s2s;
  * Main features:
  * 	- parallel queries and response processing to Spotify database
  *  - query response caching from Apache's HTTP client
+ *  - cache of parsed query results, optionally kept across runs
  *  - tree-based internal representation of known tracks titles
  *    - allows fast lookup of repeated queries
+ *  - optional local track catalog answering queries without network
  * 
  * @author rzvoncek
  *
@@ -21,10 +26,74 @@ public class Main {
 
 	public static void main(String[] args) {
 
-		SentenceSplitter sentenceSplitter = new SentenceSplitter();
+		Options options;
+		SentenceSplitter sentenceSplitter;
+
+		try {
+			options = Options.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.print(Options.usage());
+			System.exit(1);
+			return;
+		}
+
+		try {
+			sentenceSplitter = new SentenceSplitter(options);
+		} catch (IOException e) {
+			System.err.println("ERROR: " + e.getMessage());
+			System.exit(1);
+			return;
+		}
 		
-		new InputReader(sentenceSplitter).run();
+		if ( options.getServerPort() >= 0 ) {
+			serve(sentenceSplitter, options);
+			return;
+		}
 		
+		if ( options.getInputFile() != null ) {
+			try {
+				new BatchFileReader(sentenceSplitter,
+						new File(options.getInputFile()), new File(options.getOutputFile()),
+						options.getParallelism(), options.getWindow()).run();
+			} catch (Exception e) {
+				System.err.println("ERROR: " + e.getMessage());
+				System.exit(1);
+			}
+			return;
+		}
+		
+		new InputReader(sentenceSplitter,
+				options.getParallelism(), options.getWindow()).run();
+		
+	}
+
+	/**
+	 * Runs the server until the process is terminated.
+	 */
+	private static void serve(SentenceSplitter sentenceSplitter, Options options) {
+
+		final SplitServer server;
+
+		try {
+			server = new SplitServer(sentenceSplitter, options.getServerPort(),
+					options.getParallelism(), options.getServerQueue());
+		} catch (IOException e) {
+			System.err.println("ERROR: " + e.getMessage());
+			System.exit(1);
+			return;
+		}
+
+		// save the index and the caches on Ctrl+C or kill
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				server.stop();
+			}
+		});
+
+		server.start();
+		System.err.println("listening on " + server.getPort());
 	}
 
 }
@@ -0,0 +1,521 @@
+package s2s;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Read-only title tree persisted in a compact binary file.
+ *
+ * The file is mapped to memory and queried directly, nothing is deserialized
+ * when it is opened. Pages are loaded lazily by the OS and the page cache is
+ * shared between runs and processes.
+ *
+ * File layout (big endian ints):
+ * <pre>
+ *   header   magic, version, wordCnt, nodeCnt, edgeCnt, trackCnt,
+ *            wordOffsetsPos, wordBytesPos, nodesPos, edgesPos,
+ *            trackOffsetsPos, trackBytesPos
+ *   words    int[wordCnt+1] offsets + UTF-8 bytes, sorted by bytes
+ *   nodes    per node: firstEdge, edgeCnt, firstTrack, trackCnt (node 0 is the root)
+ *   edges    per edge: wordId, childNode, sorted by wordId within a node
+ *   tracks   int[2*trackCnt+1] offsets + UTF-8 bytes of (uri,name) pairs
+ * </pre>
+ *
+ * The whole index has to fit in 2 GB, the limit of a single mapped buffer.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class MappedTrackIndex {
+
+	private static final int MAGIC = 0x53325349; // "S2SI"
+	private static final int VERSION = 1;
+	private static final int HEADER_INTS = 12;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final ByteBuffer buf;
+
+	private final int wordCnt;
+	private final int nodeCnt;
+	private final int trackCnt;
+	private final int wordOffsetsPos;
+	private final int wordBytesPos;
+	private final int nodesPos;
+	private final int edgesPos;
+	private final int trackOffsetsPos;
+	private final int trackBytesPos;
+
+	private MappedTrackIndex(ByteBuffer buf) throws IOException {
+		this.buf = buf;
+
+		if ( buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION )
+			throw new IOException("not a track index file");
+
+		wordCnt = buf.getInt(8);
+		nodeCnt = buf.getInt(12);
+		trackCnt = buf.getInt(20);
+		wordOffsetsPos = buf.getInt(24);
+		wordBytesPos = buf.getInt(28);
+		nodesPos = buf.getInt(32);
+		edgesPos = buf.getInt(36);
+		trackOffsetsPos = buf.getInt(40);
+		trackBytesPos = buf.getInt(44);
+	}
+
+	/**
+	 * Maps the given index file to memory.
+	 * @param file
+	 * @return
+	 * @throws IOException if the file can't be mapped or has a wrong format
+	 */
+	public static MappedTrackIndex open(File file) throws IOException {
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if ( channel.size() > Integer.MAX_VALUE )
+				throw new IOException("track index too large: " + file);
+			// the mapping stays valid after the channel is closed
+			return new MappedTrackIndex(
+					channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			raf.close();
+		}
+	}
+
+	public int getWordCount() {
+		return wordCnt;
+	}
+
+	public int getNodeCount() {
+		return nodeCnt;
+	}
+
+	public int getTrackCount() {
+		return trackCnt;
+	}
+
+	/**
+	 * Traverses the index searching for the longest known song title prefix.
+	 * Same semantics as TrackTreeRoot.findLongestPrefix.
+	 * @param words
+	 * @return
+	 */
+	public SentencePrefix findLongestPrefix(String[] words) {
+
+		StringBuilder prefix = new StringBuilder();
+		int prefixLen = 0;
+
+		String lastPrefix = "";
+		int lastCnt = 0;
+		Track lastTrack = null;
+
+		if ( words.length == 0 )
+			return null;
+
+		int node = child(0, words[0]);
+		if ( node == -1 )
+			return null;
+
+		prefix.append(words[0]).append(' ');
+		prefixLen++;
+
+		if ( words.length == 1 )
+			return new SentencePrefix(prefix.toString(),prefixLen,track(node));
+
+		do {
+
+			// save track for possible backtracking
+			Track t = track(node);
+			if ( t != null ) {
+				lastPrefix = prefix.toString();
+				lastCnt = prefixLen;
+				lastTrack = t;
+			}
+
+			int next = child(node, words[prefixLen]);
+			if ( next == -1 )
+				break;
+
+			prefix.append(words[prefixLen]).append(' ');
+			prefixLen++;
+			node = next;
+
+		} while ( words.length > prefixLen );
+
+		return new SentencePrefix(prefix.toString(),prefixLen,track(node),lastPrefix,lastCnt,lastTrack);
+	}
+
+	/**
+	 * Records a track for every title length that matches the words starting
+	 * at the given position. Same semantics as TrackTreeRoot.findTitles.
+	 * @param words
+	 * @param from
+	 * @param matches
+	 * @return the longest matched length, 0 if nothing matched
+	 */
+	public int findTitles(String[] words, int from, Track[] matches) {
+
+		int longest = 0;
+		int node = child(0, words[from]);
+		int len = 1;
+
+		while ( node != -1 ) {
+
+			Track t = track(node);
+			if ( t != null ) {
+				matches[len] = t;
+				longest = len;
+			}
+
+			if ( from + len == words.length )
+				break;
+
+			node = child(node, words[from + len]);
+			len++;
+		}
+
+		return longest;
+	}
+
+	/**
+	 * Calls the visitor for every track in the index.
+	 * @param visitor
+	 */
+	public void forEachTrack(TrackTreeRoot.TrackVisitor visitor) {
+		visit(0, new ArrayList<String>(), visitor);
+	}
+
+	private void visit(int node, List<String> path, TrackTreeRoot.TrackVisitor visitor) {
+
+		int base = nodesPos + node*16;
+		int firstTrack = buf.getInt(base+8);
+		int trackCnt = buf.getInt(base+12);
+
+		if ( trackCnt > 0 ) {
+			String[] words = path.toArray(new String[path.size()]);
+			for ( int i=0;i<trackCnt;i++ )
+				visitor.visit(words, trackAt(firstTrack+i));
+		}
+
+		int firstEdge = buf.getInt(base);
+		int edgeCnt = buf.getInt(base+4);
+
+		for ( int e=firstEdge;e<firstEdge+edgeCnt;e++ ) {
+			path.add(word(buf.getInt(edgesPos + e*8)));
+			visit(buf.getInt(edgesPos + e*8 + 4), path, visitor);
+			path.remove(path.size()-1);
+		}
+	}
+
+	/**
+	 * Finds the child of the given node labeled by the given word.
+	 * @param node
+	 * @param word
+	 * @return child node or -1
+	 */
+	private int child(int node, String word) {
+
+		int base = nodesPos + node*16;
+		int lo = buf.getInt(base);
+		int hi = lo + buf.getInt(base+4) - 1;
+
+		while ( lo <= hi ) {
+			int mid = (lo + hi) >>> 1;
+			int cmp = compareWord(buf.getInt(edgesPos + mid*8), word);
+			if ( cmp < 0 )
+				lo = mid + 1;
+			else if ( cmp > 0 )
+				hi = mid - 1;
+			else
+				return buf.getInt(edgesPos + mid*8 + 4);
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns random track of the given node, or null if it has none.
+	 */
+	private Track track(int node) {
+		int base = nodesPos + node*16;
+		int cnt = buf.getInt(base+12);
+		if ( cnt == 0 )
+			return null;
+		return trackAt(buf.getInt(base+8) + ThreadLocalRandom.current().nextInt(cnt));
+	}
+
+	private Track trackAt(int track) {
+		String uri = string(trackOffsetsPos, trackBytesPos, 2*track);
+		String name = string(trackOffsetsPos, trackBytesPos, 2*track+1);
+		return new Track(name, uri);
+	}
+
+	private String word(int wordId) {
+		return string(wordOffsetsPos, wordBytesPos, wordId);
+	}
+
+	private String string(int offsetsPos, int bytesPos, int i) {
+		int from = buf.getInt(offsetsPos + i*4);
+		int to = buf.getInt(offsetsPos + i*4 + 4);
+		byte[] b = new byte[to-from];
+		for ( int j=0;j<b.length;j++ )
+			b[j] = buf.get(bytesPos + from + j);
+		return new String(b, UTF8);
+	}
+
+	/**
+	 * Compares the stored word with the UTF-8 encoding of the given one as
+	 * unsigned bytes. The word is encoded while it is compared, so lookups
+	 * allocate nothing; like String.getBytes, a lone surrogate stands for '?'.
+	 */
+	private int compareWord(int wordId, String word) {
+
+		int pos = wordBytesPos + buf.getInt(wordOffsetsPos + wordId*4);
+		int end = wordBytesPos + buf.getInt(wordOffsetsPos + wordId*4 + 4);
+		int n = word.length();
+
+		for ( int i=0;i<n;i++ ) {
+
+			int cp = word.charAt(i);
+			int len;
+			if ( cp < 0x80 ) {
+				len = 1;
+			} else if ( cp < 0x800 ) {
+				len = 2;
+			} else if ( Character.isHighSurrogate((char) cp) && i+1 < n
+					&& Character.isLowSurrogate(word.charAt(i+1)) ) {
+				cp = Character.toCodePoint((char) cp, word.charAt(++i));
+				len = 4;
+			} else if ( Character.isSurrogate((char) cp) ) {
+				cp = '?';
+				len = 1;
+			} else {
+				len = 3;
+			}
+
+			for ( int k=0;k<len;k++ ) {
+				if ( pos == end )
+					return -1;
+				int c = (buf.get(pos++) & 0xff) - utf8Byte(cp, len, k);
+				if ( c != 0 )
+					return c;
+			}
+		}
+
+		return pos == end ? 0 : 1;
+	}
+
+	/**
+	 * @return k-th byte of the len bytes long UTF-8 encoding of the code point
+	 */
+	private static int utf8Byte(int cp, int len, int k) {
+		if ( len == 1 )
+			return cp;
+		if ( k == 0 )
+			return ( 0xff00 >> len & 0xff ) | cp >> 6*(len-1);
+		return 0x80 | ( cp >> 6*(len-1-k) & 0x3f );
+	}
+
+	/**
+	 * Writes the given tree into an index file. The file is written to a
+	 * temporary file first and then renamed, so a mapped old version stays
+	 * intact.
+	 * @param tree
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void write(TrackTreeRoot tree, File file) throws IOException {
+
+		// collect and sort the words by their encoded bytes
+		final Map<String,byte[]> encoded = new HashMap<String,byte[]>();
+		final List<BuilderNode> nodes = new ArrayList<BuilderNode>();
+		final BuilderNode root = new BuilderNode();
+		nodes.add(root);
+
+		tree.forEachTrack(new TrackTreeRoot.TrackVisitor() {
+			@Override
+			public void visit(String[] words, Track t) {
+				BuilderNode n = root;
+				for ( String w : words ) {
+					if ( !encoded.containsKey(w) )
+						encoded.put(w, w.getBytes(UTF8));
+					BuilderNode c = n.children.get(w);
+					if ( c == null ) {
+						c = new BuilderNode();
+						n.children.put(w, c);
+						nodes.add(c);
+					}
+					n = c;
+				}
+				// the same track may be both in memory and in the old index
+				for ( Track known : n.tracks ) {
+					if ( known.getUrl().equals(t.getUrl()) )
+						return;
+				}
+				n.tracks.add(t);
+			}
+		});
+
+		List<String> words = new ArrayList<String>(encoded.keySet());
+		Collections.sort(words, new Comparator<String>() {
+			@Override
+			public int compare(String a, String b) {
+				byte[] x = encoded.get(a);
+				byte[] y = encoded.get(b);
+				int n = Math.min(x.length, y.length);
+				for ( int i=0;i<n;i++ ) {
+					int c = (x[i] & 0xff) - (y[i] & 0xff);
+					if ( c != 0 )
+						return c;
+				}
+				return x.length - y.length;
+			}
+		});
+		Map<String,Integer> wordIds = new HashMap<String,Integer>(words.size()*2);
+		for ( int i=0;i<words.size();i++ )
+			wordIds.put(words.get(i), i);
+
+		// number the nodes breadth first, so children of a node are adjacent
+		List<BuilderNode> order = new ArrayList<BuilderNode>(nodes.size());
+		order.add(root);
+		int edgeCnt = 0;
+		int trackCnt = 0;
+		for ( int i=0;i<order.size();i++ ) {
+			BuilderNode n = order.get(i);
+			n.sortedWords = n.children.keySet().toArray(new String[n.children.size()]);
+			final Map<String,Integer> ids = wordIds;
+			Arrays.sort(n.sortedWords, new Comparator<String>() {
+				@Override
+				public int compare(String a, String b) {
+					return ids.get(a) - ids.get(b);
+				}
+			});
+			n.firstEdge = edgeCnt;
+			n.firstTrack = trackCnt;
+			edgeCnt += n.sortedWords.length;
+			trackCnt += n.tracks.size();
+			for ( String w : n.sortedWords ) {
+				BuilderNode c = n.children.get(w);
+				c.id = order.size();
+				order.add(c);
+			}
+		}
+
+		// encode track strings
+		byte[][] trackStrings = new byte[2*trackCnt][];
+		int ts = 0;
+		for ( BuilderNode n : order ) {
+			for ( Track t : n.tracks ) {
+				trackStrings[ts++] = t.getUrl().getBytes(UTF8);
+				trackStrings[ts++] = t.getName().getBytes(UTF8);
+			}
+		}
+
+		long wordBytes = 0;
+		for ( String w : words )
+			wordBytes += encoded.get(w).length;
+		long trackBytes = 0;
+		for ( byte[] b : trackStrings )
+			trackBytes += b.length;
+
+		long wordOffsetsPos = HEADER_INTS*4;
+		long wordBytesPos = wordOffsetsPos + 4L*(words.size()+1);
+		long nodesPos = wordBytesPos + wordBytes;
+		long edgesPos = nodesPos + 16L*order.size();
+		long trackOffsetsPos = edgesPos + 8L*edgeCnt;
+		long trackBytesPos = trackOffsetsPos + 4L*(trackStrings.length+1);
+		long total = trackBytesPos + trackBytes;
+
+		if ( total > Integer.MAX_VALUE )
+			throw new IOException("track index would exceed 2 GB");
+
+		File tmp = new File(file.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(words.size());
+			out.writeInt(order.size());
+			out.writeInt(edgeCnt);
+			out.writeInt(trackCnt);
+			out.writeInt((int) wordOffsetsPos);
+			out.writeInt((int) wordBytesPos);
+			out.writeInt((int) nodesPos);
+			out.writeInt((int) edgesPos);
+			out.writeInt((int) trackOffsetsPos);
+			out.writeInt((int) trackBytesPos);
+
+			int offset = 0;
+			out.writeInt(offset);
+			for ( String w : words ) {
+				offset += encoded.get(w).length;
+				out.writeInt(offset);
+			}
+			for ( String w : words )
+				out.write(encoded.get(w));
+
+			for ( BuilderNode n : order ) {
+				out.writeInt(n.firstEdge);
+				out.writeInt(n.sortedWords.length);
+				out.writeInt(n.firstTrack);
+				out.writeInt(n.tracks.size());
+			}
+
+			for ( BuilderNode n : order ) {
+				for ( String w : n.sortedWords ) {
+					out.writeInt(wordIds.get(w));
+					out.writeInt(n.children.get(w).id);
+				}
+			}
+
+			offset = 0;
+			out.writeInt(offset);
+			for ( byte[] b : trackStrings ) {
+				offset += b.length;
+				out.writeInt(offset);
+			}
+			for ( byte[] b : trackStrings )
+				out.write(b);
+
+		} finally {
+			out.close();
+		}
+
+		if ( file.exists() && !file.delete() )
+			throw new IOException("can't replace " + file);
+		if ( !tmp.renameTo(file) )
+			throw new IOException("can't rename " + tmp + " to " + file);
+	}
+
+	/**
+	 * Node of the tree being written.
+	 */
+	private static class BuilderNode {
+		int id;
+		int firstEdge;
+		int firstTrack;
+		String[] sortedWords;
+		Map<String,BuilderNode> children = new HashMap<String,BuilderNode>();
+		List<Track> tracks = new ArrayList<Track>();
+	}
+
+}
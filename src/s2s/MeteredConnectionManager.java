@@ -0,0 +1,84 @@
+package s2s;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+
+/**
+ * Pooling connection manager measuring how long requests wait to lease
+ * a connection from the pool. A long wait means the pool, not the network,
+ * limits the number of requests in flight.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class MeteredConnectionManager extends PoolingClientConnectionManager {
+
+	private final AtomicLong leaseCount = new AtomicLong();
+	private final AtomicLong leaseWaitNanos = new AtomicLong();
+	private final AtomicLong maxLeaseWaitNanos = new AtomicLong();
+
+	@Override
+	public ClientConnectionRequest requestConnection(HttpRoute route, Object state) {
+
+		final ClientConnectionRequest request = super.requestConnection(route, state);
+
+		return new ClientConnectionRequest() {
+
+			@Override
+			public ManagedClientConnection getConnection(long timeout, TimeUnit tunit)
+					throws InterruptedException, ConnectionPoolTimeoutException {
+				long start = System.nanoTime();
+				try {
+					return request.getConnection(timeout, tunit);
+				} finally {
+					recordLease(System.nanoTime() - start);
+				}
+			}
+
+			@Override
+			public void abortRequest() {
+				request.abortRequest();
+			}
+		};
+	}
+
+	private void recordLease(long nanos) {
+		Metrics.LEASE.record(nanos);
+		leaseCount.incrementAndGet();
+		leaseWaitNanos.addAndGet(nanos);
+		for (;;) {
+			long max = maxLeaseWaitNanos.get();
+			if ( nanos <= max || maxLeaseWaitNanos.compareAndSet(max, nanos) )
+				return;
+		}
+	}
+
+	/**
+	 * @return number of connection leases, including failed ones
+	 */
+	public long getLeaseCount() {
+		return leaseCount.get();
+	}
+
+	/**
+	 * @return total time spent waiting for a connection
+	 */
+	public long getLeaseWaitNanos() {
+		return leaseWaitNanos.get();
+	}
+
+	/**
+	 * @return longest wait for a connection
+	 */
+	public long getMaxLeaseWaitNanos() {
+		return maxLeaseWaitNanos.get();
+	}
+
+}
@@ -0,0 +1,313 @@
+package s2s;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.http.client.cache.CacheResponseStatus;
+
+/**
+ * Latencies of the processing stages and counters of what happened to the
+ * remote queries, published over JMX under the s2s domain and optionally
+ * printed to standard error at a fixed period.
+ *
+ * The stage histograms and counters are process wide, so the code of every
+ * stage records into them without being handed a registry. The gauges read
+ * the tree and the adapter of the splitter that registered last.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class Metrics implements MetricsMBean {
+
+	private static final String DOMAIN = "s2s";
+
+	/** wait for a permit of the rate limiter */
+	public static final Histogram THROTTLE = new Histogram("throttle");
+	/** wait for a pooled connection */
+	public static final Histogram LEASE = new Histogram("lease");
+	/** sending a request until the response headers arrived, including the HTTP cache */
+	public static final Histogram HTTP = new Histogram("http");
+	/** reading and parsing a response body; includes the tree import when the parser feeds the tree */
+	public static final Histogram PARSE = new Histogram("parse");
+	/** one remote query including throttling and retries */
+	public static final Histogram QUERY = new Histogram("query");
+	/** fetching the tracks of one sentence */
+	public static final Histogram FETCH = new Histogram("fetch");
+	/** importing a list of tracks into the tree */
+	public static final Histogram IMPORT = new Histogram("import");
+	/** one title lookup: a longest prefix (-greedy) or the titles starting at a word (segmenter) */
+	public static final Histogram PREFIX = new Histogram("prefix");
+	/** splitting the words of a sentence by the known titles */
+	public static final Histogram SEGMENT = new Histogram("segment");
+	/** splitting one sentence end to end */
+	public static final Histogram SPLIT = new Histogram("split");
+	/** wait of a server request for a free worker */
+	public static final Histogram QUEUE = new Histogram("queue");
+
+	private static final Histogram[] STAGES = {
+		THROTTLE, LEASE, HTTP, PARSE, QUERY, FETCH, IMPORT, PREFIX, SEGMENT, SPLIT, QUEUE
+	};
+
+	public static final LongAdder QUERIES = new LongAdder();
+	public static final LongAdder QUERY_FAILURES = new LongAdder();
+	public static final LongAdder RATE_LIMITED = new LongAdder();
+	public static final LongAdder RETRIES = new LongAdder();
+	/** server requests refused because all workers were busy and the queue full */
+	public static final LongAdder SHED = new LongAdder();
+
+	private static final LongAdder[] CACHE_STATUS = new LongAdder[CacheResponseStatus.values().length];
+	static {
+		for ( int i=0;i<CACHE_STATUS.length;i++ )
+			CACHE_STATUS[i] = new LongAdder();
+	}
+
+	private static Metrics registered;
+	private static volatile ThreadPoolExecutor serverQueue;
+
+	private final TrackTreeRoot trackTree;
+	private final SpotifyAdapter spotify;
+	private ScheduledExecutorService reporter;
+
+	private Metrics(TrackTreeRoot trackTree, SpotifyAdapter spotify) {
+		this.trackTree = trackTree;
+		this.spotify = spotify;
+	}
+
+	/**
+	 * Counts a response by the way the HTTP cache answered it.
+	 * @param status may be null when the response did not pass the cache
+	 */
+	public static void recordCacheStatus(CacheResponseStatus status) {
+		if ( status != null )
+			CACHE_STATUS[status.ordinal()].increment();
+	}
+
+	/**
+	 * @param workers executor of the server requests, null when the server stopped
+	 */
+	public static void setServerQueue(ThreadPoolExecutor workers) {
+		serverQueue = workers;
+	}
+
+	/**
+	 * Publishes the metrics over JMX, replacing those registered before.
+	 * @param trackTree
+	 * @param spotify
+	 * @return the registered metrics
+	 */
+	public static synchronized Metrics register(TrackTreeRoot trackTree, SpotifyAdapter spotify) {
+
+		if ( registered != null )
+			registered.unregister();
+
+		Metrics metrics = new Metrics(trackTree, spotify);
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+		try {
+			server.registerMBean(metrics, new ObjectName(DOMAIN + ":type=Metrics"));
+			for ( Histogram h : STAGES ) {
+				ObjectName name = stageName(h);
+				if ( !server.isRegistered(name) )
+					server.registerMBean(h, name);
+			}
+		} catch (JMException e) {
+			System.err.println("ERROR: " + e.getMessage());
+		}
+
+		registered = metrics;
+		return metrics;
+	}
+
+	private static ObjectName stageName(Histogram h) throws JMException {
+		return new ObjectName(DOMAIN + ":type=Stage,name=" + h.getName());
+	}
+
+	/**
+	 * Stops the periodic report and removes the metrics from JMX. The stage
+	 * histograms stay registered, they outlive the splitter.
+	 */
+	public void unregister() {
+
+		synchronized (this) {
+			if ( reporter != null )
+				reporter.shutdown();
+		}
+
+		synchronized (Metrics.class) {
+
+			// replaced by the metrics of another splitter already
+			if ( registered != this )
+				return;
+			registered = null;
+
+			try {
+				ObjectName name = new ObjectName(DOMAIN + ":type=Metrics");
+				MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				if ( server.isRegistered(name) )
+					server.unregisterMBean(name);
+			} catch (JMException e) {
+				System.err.println("ERROR: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Prints the metrics to standard error every period, from a daemon thread.
+	 * @param periodMillis
+	 */
+	public synchronized void startReporting(long periodMillis) {
+
+		if ( reporter != null )
+			return;
+
+		reporter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "metrics");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		reporter.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				print(System.err);
+			}
+		}, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Prints a line per stage which was passed at least once, then the counters.
+	 * @param out
+	 */
+	public void print(PrintStream out) {
+
+		StringBuilder b = new StringBuilder();
+
+		for ( Histogram h : STAGES ) {
+			if ( h.getCount() > 0 )
+				b.append(h).append('\n');
+		}
+
+		b.append("queries: ").append(getQueries()).append(", ")
+				.append(getQueryFailures()).append(" failed, ")
+				.append(getRateLimited()).append(" rate limited, ")
+				.append(getRetries()).append(" retried, ")
+				.append(getQueriesInFlight()).append(" in flight, ")
+				.append(getQueueDepth()).append(" queued\n");
+		b.append("HTTP cache status: ").append(getHttpCacheHits()).append(" hits, ")
+				.append(getHttpCacheMisses()).append(" misses, ")
+				.append(getHttpCacheValidated()).append(" validated, ")
+				.append(getHttpCacheModuleResponses()).append(" cache module responses\n");
+		if ( serverQueue != null ) {
+			b.append("server: ").append(getServerQueueDepth()).append(" queued, ")
+					.append(getShedRequests()).append(" shed\n");
+		}
+		b.append("tree: ").append(getTrieNodes()).append(" nodes, ")
+				.append(getTrieTracks()).append(" tracks, ")
+				.append(getTrieBytes()).append(" bytes, ")
+				.append(getTrieEvictions()).append(" evicted branches\n");
+
+		// one write, so concurrent output doesn't interleave with the report
+		out.print(b);
+		out.flush();
+	}
+
+	@Override
+	public long getQueries() {
+		return QUERIES.sum();
+	}
+
+	@Override
+	public long getQueryFailures() {
+		return QUERY_FAILURES.sum();
+	}
+
+	@Override
+	public long getRateLimited() {
+		return RATE_LIMITED.sum();
+	}
+
+	@Override
+	public long getRetries() {
+		return RETRIES.sum();
+	}
+
+	@Override
+	public long getHttpCacheHits() {
+		return CACHE_STATUS[CacheResponseStatus.CACHE_HIT.ordinal()].sum();
+	}
+
+	@Override
+	public long getHttpCacheMisses() {
+		return CACHE_STATUS[CacheResponseStatus.CACHE_MISS.ordinal()].sum();
+	}
+
+	@Override
+	public long getHttpCacheValidated() {
+		return CACHE_STATUS[CacheResponseStatus.VALIDATED.ordinal()].sum();
+	}
+
+	@Override
+	public long getHttpCacheModuleResponses() {
+		return CACHE_STATUS[CacheResponseStatus.CACHE_MODULE_RESPONSE.ordinal()].sum();
+	}
+
+	@Override
+	public long getTrieNodes() {
+		return trackTree.getNodeCount();
+	}
+
+	@Override
+	public long getTrieTracks() {
+		return trackTree.getTrackCount();
+	}
+
+	@Override
+	public long getTrieBytes() {
+		return trackTree.getUsedBytes();
+	}
+
+	@Override
+	public long getTrieEvictions() {
+		return trackTree.getEvictionCount();
+	}
+
+	@Override
+	public int getQueueDepth() {
+		return spotify.getQueueDepth();
+	}
+
+	@Override
+	public int getQueriesInFlight() {
+		return spotify.getInFlightCount();
+	}
+
+	@Override
+	public int getServerQueueDepth() {
+		ThreadPoolExecutor workers = serverQueue;
+		return workers == null ? 0 : workers.getQueue().size();
+	}
+
+	@Override
+	public long getShedRequests() {
+		return SHED.sum();
+	}
+
+	@Override
+	public String getCircuitBreakerState() {
+		return spotify.getCircuitBreaker().getState().toString();
+	}
+
+}
@@ -0,0 +1,46 @@
+package s2s;
+
+/**
+ * Counters and gauges of the splitter as seen over JMX, see Metrics.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public interface MetricsMBean {
+
+	public long getQueries();
+
+	public long getQueryFailures();
+
+	public long getRateLimited();
+
+	public long getRetries();
+
+	public long getHttpCacheHits();
+
+	public long getHttpCacheMisses();
+
+	public long getHttpCacheValidated();
+
+	public long getHttpCacheModuleResponses();
+
+	public long getTrieNodes();
+
+	public long getTrieTracks();
+
+	public long getTrieBytes();
+
+	public long getTrieEvictions();
+
+	public int getQueueDepth();
+
+	public int getQueriesInFlight();
+
+	public int getServerQueueDepth();
+
+	public long getShedRequests();
+
+	public String getCircuitBreakerState();
+
+}
@@ -0,0 +1,248 @@
+package s2s;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.cache.HttpCacheEntrySerializer;
+import org.apache.http.client.cache.HttpCacheStorage;
+import org.apache.http.client.cache.HttpCacheUpdateCallback;
+import org.apache.http.impl.client.cache.DefaultHttpCacheEntrySerializer;
+
+/**
+ * HTTP cache storage keeping the serialized responses outside of the Java
+ * heap, so a large cache adds nothing to garbage collection.
+ *
+ * The memory is allocated as direct byte buffers of BLOCKS_PER_SEGMENT
+ * blocks while the cache fills, up to the capacity, so a cache that is
+ * never used takes nothing. Buffers are cut into blocks of BLOCK_SIZE
+ * bytes, an entry takes as many blocks as it needs. Only the index (key to
+ * block numbers) is kept on the heap. When the capacity is reached, the
+ * least recently used entries are evicted until the new entry fits.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class OffHeapCacheStorage implements HttpCacheStorage {
+
+	private static final int BLOCK_SIZE = 1024;
+	private static final int BLOCKS_PER_SEGMENT = 1024; // 1 MB
+
+	private final HttpCacheEntrySerializer serializer;
+	private final ByteBuffer[] segments;
+	private final int blockCount;
+	private int allocatedSegments;
+
+	// free block numbers, a stack
+	private final int[] freeBlocks;
+	private int freeCount;
+
+	private final LinkedHashMap<String,Slot> index;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+	private long usedBytes;
+
+	/**
+	 * @param capacityBytes memory to allocate at most, rounded down to whole
+	 * 		blocks
+	 */
+	public OffHeapCacheStorage(long capacityBytes) {
+
+		serializer = new DefaultHttpCacheEntrySerializer();
+
+		long blocks = capacityBytes / BLOCK_SIZE;
+		if ( blocks < 1 || blocks > Integer.MAX_VALUE )
+			throw new IllegalArgumentException("bad cache capacity " + capacityBytes);
+		blockCount = (int) blocks;
+
+		segments = new ByteBuffer[(blockCount + BLOCKS_PER_SEGMENT - 1) / BLOCKS_PER_SEGMENT];
+		freeBlocks = new int[blockCount];
+		freeCount = 0;
+
+		index = new LinkedHashMap<String,Slot>(16, 0.75f, true);
+	}
+
+	@Override
+	public void putEntry(String key, HttpCacheEntry entry) throws IOException {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		serializer.writeTo(entry, out);
+		byte[] data = out.toByteArray();
+
+		synchronized (this) {
+			store(key, data);
+		}
+	}
+
+	@Override
+	public HttpCacheEntry getEntry(String key) throws IOException {
+
+		byte[] data;
+
+		synchronized (this) {
+			Slot slot = index.get(key);
+			if ( slot == null ) {
+				misses++;
+				return null;
+			}
+			hits++;
+			data = load(slot);
+		}
+
+		return serializer.readFrom(new ByteArrayInputStream(data));
+	}
+
+	@Override
+	public synchronized void removeEntry(String key) throws IOException {
+		Slot slot = index.remove(key);
+		if ( slot != null )
+			free(slot);
+	}
+
+	@Override
+	public synchronized void updateEntry(String key, HttpCacheUpdateCallback callback)
+			throws IOException {
+
+		Slot slot = index.get(key);
+		HttpCacheEntry existing = slot == null ? null
+				: serializer.readFrom(new ByteArrayInputStream(load(slot)));
+
+		HttpCacheEntry updated = callback.update(existing);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		serializer.writeTo(updated, out);
+		store(key, out.toByteArray());
+	}
+
+	/**
+	 * Copies the data into free blocks, evicting the least recently used
+	 * entries if needed. Data larger than the whole storage is not kept.
+	 */
+	private void store(String key, byte[] data) {
+
+		Slot old = index.remove(key);
+		if ( old != null )
+			free(old);
+
+		int needed = (data.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		if ( needed > blockCount )
+			return;
+
+		while ( freeCount < needed && allocatedSegments < segments.length )
+			allocateSegment();
+
+		Iterator<Map.Entry<String,Slot>> eldest = index.entrySet().iterator();
+		while ( freeCount < needed ) {
+			Slot victim = eldest.next().getValue();
+			eldest.remove();
+			free(victim);
+			evictions++;
+		}
+
+		int[] blocks = new int[needed];
+		for ( int i=0;i<needed;i++ ) {
+			blocks[i] = freeBlocks[--freeCount];
+			int off = i * BLOCK_SIZE;
+			block(blocks[i]).put(data, off, Math.min(BLOCK_SIZE, data.length - off));
+		}
+
+		index.put(key, new Slot(blocks, data.length));
+		usedBytes += data.length;
+	}
+
+	/**
+	 * Allocates the next segment and makes its blocks free, the lowest
+	 * block number on the top of the stack.
+	 */
+	private void allocateSegment() {
+
+		int first = allocatedSegments * BLOCKS_PER_SEGMENT;
+		int segmentBlocks = Math.min(BLOCKS_PER_SEGMENT, blockCount - first);
+		segments[allocatedSegments++] = ByteBuffer.allocateDirect(segmentBlocks * BLOCK_SIZE);
+
+		for ( int i=segmentBlocks-1;i>=0;i-- )
+			freeBlocks[freeCount++] = first + i;
+	}
+
+	private byte[] load(Slot slot) {
+		byte[] data = new byte[slot.length];
+		for ( int i=0;i<slot.blocks.length;i++ ) {
+			int off = i * BLOCK_SIZE;
+			block(slot.blocks[i]).get(data, off, Math.min(BLOCK_SIZE, data.length - off));
+		}
+		return data;
+	}
+
+	private void free(Slot slot) {
+		for ( int b : slot.blocks )
+			freeBlocks[freeCount++] = b;
+		usedBytes -= slot.length;
+	}
+
+	/**
+	 * @param block block number
+	 * @return view of the block, positioned at its start
+	 */
+	private ByteBuffer block(int block) {
+		ByteBuffer view = segments[block / BLOCKS_PER_SEGMENT].duplicate();
+		int start = (block % BLOCKS_PER_SEGMENT) * BLOCK_SIZE;
+		view.limit(start + BLOCK_SIZE);
+		view.position(start);
+		return view;
+	}
+
+	public synchronized int size() {
+		return index.size();
+	}
+
+	/**
+	 * @return bytes taken by the cached entries, without the unused ends
+	 * 		of their last blocks
+	 */
+	public synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+
+	public long getCapacityBytes() {
+		return (long) blockCount * BLOCK_SIZE;
+	}
+
+	/**
+	 * @return direct memory allocated so far
+	 */
+	public synchronized long getAllocatedBytes() {
+		return Math.min((long) allocatedSegments * BLOCKS_PER_SEGMENT, blockCount) * BLOCK_SIZE;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	private static class Slot {
+
+		final int[] blocks;
+		final int length;
+
+		Slot(int[] blocks, int length) {
+			this.blocks = blocks;
+			this.length = length;
+		}
+	}
+
+}
@@ -0,0 +1,602 @@
+package s2s;
+
+/**
+ * Command line options of the utility. Running without arguments reads the
+ * standard input and queries Spotify only. Not every default matches the
+ * original behaviour: sentences are split optimally (-greedy restores the
+ * longest prefix split), parsed query results and split sentences are
+ * cached, HTTP responses are cached off the heap, and words already
+ * covered by known titles are not queried (see -alwaysQuery).
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class Options {
+
+	private String catalogFile;
+	private boolean offline;
+	private String indexFile;
+	private boolean greedy;
+	private int parallelism;
+	private int window;
+	private double requestRate;
+	private int requestBurst;
+	private int cacheEntries;
+	private long cacheTtl;
+	private long negativeCacheTtl;
+	private String cacheFile;
+	private boolean alwaysQuery;
+	private boolean asyncEngine;
+	private boolean early;
+	private int deadline;
+	private String url;
+	private double hedgePercentile;
+	private String hedgeUrl;
+	private int maxPerRoute;
+	private int maxConnections;
+	private int keepAlive;
+	private int connectTimeout;
+	private int socketTimeout;
+	private boolean stats;
+	private int httpCacheMB;
+	private int metricsPeriod;
+	private String inputFile;
+	private String outputFile;
+	private int serverPort;
+	private int serverQueue;
+	private int sentenceCacheEntries;
+	private int trieMemoryMB;
+	private String trieSpillFile;
+
+	public Options() {
+		catalogFile = null;
+		offline = false;
+		indexFile = null;
+		greedy = false;
+		parallelism = 1;
+		window = 0;
+		requestRate = SpotifyAdapter.REQUESTS_PER_SECOND;
+		requestBurst = 1;
+		cacheEntries = 10000;
+		cacheTtl = 86400;
+		negativeCacheTtl = 3600;
+		cacheFile = null;
+		alwaysQuery = false;
+		asyncEngine = false;
+		early = false;
+		deadline = 0;
+		url = HttpTrackSource.DEFAULT_BASE_URL;
+		hedgePercentile = 0;
+		hedgeUrl = null;
+		maxPerRoute = HttpTrackSource.DEFAULT_MAX_PER_ROUTE;
+		maxConnections = HttpTrackSource.DEFAULT_MAX_TOTAL;
+		keepAlive = (int) (HttpTrackSource.DEFAULT_KEEP_ALIVE / 1000);
+		connectTimeout = 0;
+		socketTimeout = 0;
+		stats = false;
+		httpCacheMB = (int) (HttpTrackSource.DEFAULT_CACHE_BYTES >> 20);
+		metricsPeriod = 0;
+		inputFile = null;
+		outputFile = null;
+		serverPort = -1;
+		serverQueue = 64;
+		sentenceCacheEntries = 10000;
+		trieMemoryMB = 0;
+		trieSpillFile = null;
+	}
+
+	/**
+	 * Parses the command line arguments.
+	 * @param args
+	 * @return parsed options
+	 * @throws IllegalArgumentException on unknown or incomplete option
+	 */
+	public static Options parse(String[] args) {
+
+		Options options = new Options();
+
+		for ( int i=0;i<args.length;i++ ) {
+
+			String arg = args[i];
+
+			if ( "-catalog".equals(arg) ) {
+				options.catalogFile = value(args, ++i, arg);
+			} else if ( "-offline".equals(arg) ) {
+				options.offline = true;
+			} else if ( "-index".equals(arg) ) {
+				options.indexFile = value(args, ++i, arg);
+			} else if ( "-greedy".equals(arg) ) {
+				options.greedy = true;
+			} else if ( "-parallel".equals(arg) ) {
+				options.parallelism = intValue(args, ++i, arg, 1);
+			} else if ( "-window".equals(arg) ) {
+				options.window = intValue(args, ++i, arg, 1);
+			} else if ( "-rate".equals(arg) ) {
+				options.requestRate = doubleValue(args, ++i, arg);
+			} else if ( "-burst".equals(arg) ) {
+				options.requestBurst = intValue(args, ++i, arg, 1);
+			} else if ( "-cacheEntries".equals(arg) ) {
+				options.cacheEntries = intValue(args, ++i, arg, 0);
+			} else if ( "-cacheTtl".equals(arg) ) {
+				options.cacheTtl = intValue(args, ++i, arg, 0);
+			} else if ( "-negativeTtl".equals(arg) ) {
+				options.negativeCacheTtl = intValue(args, ++i, arg, 0);
+			} else if ( "-cacheFile".equals(arg) ) {
+				options.cacheFile = value(args, ++i, arg);
+			} else if ( "-alwaysQuery".equals(arg) ) {
+				options.alwaysQuery = true;
+			} else if ( "-engine".equals(arg) ) {
+				String engine = value(args, ++i, arg);
+				if ( "async".equals(engine) )
+					options.asyncEngine = true;
+				else if ( "blocking".equals(engine) )
+					options.asyncEngine = false;
+				else
+					throw new IllegalArgumentException("unknown engine " + engine);
+			} else if ( "-early".equals(arg) ) {
+				options.early = true;
+			} else if ( "-deadline".equals(arg) ) {
+				options.deadline = intValue(args, ++i, arg, 0);
+			} else if ( "-url".equals(arg) ) {
+				options.url = value(args, ++i, arg);
+			} else if ( "-hedge".equals(arg) ) {
+				options.hedgePercentile = doubleValue(args, ++i, arg);
+				if ( options.hedgePercentile > 100 )
+					throw new IllegalArgumentException(arg + " must be a percentile");
+			} else if ( "-hedgeUrl".equals(arg) ) {
+				options.hedgeUrl = value(args, ++i, arg);
+			} else if ( "-maxPerRoute".equals(arg) ) {
+				options.maxPerRoute = intValue(args, ++i, arg, 1);
+			} else if ( "-maxConnections".equals(arg) ) {
+				options.maxConnections = intValue(args, ++i, arg, 1);
+			} else if ( "-keepAlive".equals(arg) ) {
+				options.keepAlive = intValue(args, ++i, arg, 0);
+			} else if ( "-connectTimeout".equals(arg) ) {
+				options.connectTimeout = intValue(args, ++i, arg, 0);
+			} else if ( "-socketTimeout".equals(arg) ) {
+				options.socketTimeout = intValue(args, ++i, arg, 0);
+			} else if ( "-stats".equals(arg) ) {
+				options.stats = true;
+			} else if ( "-httpCache".equals(arg) ) {
+				options.httpCacheMB = intValue(args, ++i, arg, 0);
+			} else if ( "-metrics".equals(arg) ) {
+				options.metricsPeriod = intValue(args, ++i, arg, 0);
+			} else if ( "-in".equals(arg) ) {
+				options.inputFile = value(args, ++i, arg);
+			} else if ( "-out".equals(arg) ) {
+				options.outputFile = value(args, ++i, arg);
+			} else if ( "-server".equals(arg) ) {
+				options.serverPort = intValue(args, ++i, arg, 0);
+			} else if ( "-queue".equals(arg) ) {
+				options.serverQueue = intValue(args, ++i, arg, 1);
+			} else if ( "-sentenceCache".equals(arg) ) {
+				options.sentenceCacheEntries = intValue(args, ++i, arg, 0);
+			} else if ( "-trieMemory".equals(arg) ) {
+				options.trieMemoryMB = intValue(args, ++i, arg, 0);
+			} else if ( "-trieSpill".equals(arg) ) {
+				options.trieSpillFile = value(args, ++i, arg);
+			} else {
+				throw new IllegalArgumentException("unknown option " + arg);
+			}
+		}
+
+		if ( options.offline && options.catalogFile == null ) {
+			throw new IllegalArgumentException("-offline requires -catalog");
+		}
+
+		if ( options.hedgeUrl != null && options.hedgePercentile == 0 ) {
+			throw new IllegalArgumentException("-hedgeUrl requires -hedge");
+		}
+
+		if ( (options.inputFile == null) != (options.outputFile == null) ) {
+			throw new IllegalArgumentException("-in and -out go together");
+		}
+
+		if ( options.serverPort >= 0 && options.inputFile != null ) {
+			throw new IllegalArgumentException("-server and -in exclude each other");
+		}
+
+		if ( options.trieSpillFile != null && options.trieMemoryMB == 0 ) {
+			throw new IllegalArgumentException("-trieSpill requires -trieMemory");
+		}
+
+		return options;
+	}
+
+	private static String value(String[] args, int i, String arg) {
+		if ( i >= args.length )
+			throw new IllegalArgumentException(arg + " requires a value");
+		return args[i];
+	}
+
+	private static int intValue(String[] args, int i, String arg, int min) {
+		String v = value(args, i, arg);
+		int n;
+		try {
+			n = Integer.parseInt(v);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(arg + " requires a number: " + v);
+		}
+		if ( n < min )
+			throw new IllegalArgumentException(arg + " must be at least " + min);
+		return n;
+	}
+
+	private static double doubleValue(String[] args, int i, String arg) {
+		String v = value(args, i, arg);
+		double d;
+		try {
+			d = Double.parseDouble(v);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(arg + " requires a number: " + v);
+		}
+		if ( !(d > 0) )
+			throw new IllegalArgumentException(arg + " must be positive");
+		return d;
+	}
+
+	public static String usage() {
+		return "usage: java -jar sentence2songs.jar [options]\n"
+				+ "\t-catalog <file>   serve lookups from a local TSV catalog (uri<TAB>title)\n"
+				+ "\t-offline          never query Spotify, use the catalog only\n"
+				+ "\t-index <file>     map known titles from the file, save them there on exit\n"
+				+ "\t-greedy           split by repeatedly cutting the longest known prefix\n"
+				+ "\t-parallel <n>     split n sentences at the same time (default 1)\n"
+				+ "\t-window <n>       read at most n sentences ahead (default 4 x parallel)\n"
+				+ "\t-rate <n>         remote requests per second (default 10)\n"
+				+ "\t-burst <n>        remote requests which may be sent at once (default 1)\n"
+				+ "\t-cacheEntries <n> cached remote query results, 0 disables (default 10000)\n"
+				+ "\t-cacheTtl <s>     seconds to keep results with tracks (default 86400)\n"
+				+ "\t-negativeTtl <s>  seconds to keep results without tracks (default 3600)\n"
+				+ "\t-cacheFile <file> load cached results from the file, save them there on exit\n"
+				+ "\t-alwaysQuery      query all words, even those covered by known titles\n"
+				+ "\t-engine <e>       remote fetch engine: blocking (default) or async\n"
+				+ "\t-early            split once all words are covered, cancel other queries\n"
+				+ "\t-deadline <ms>    time to split a sentence, 0 waits for all queries (default 0)\n"
+				+ "\t-url <url>        search URL the query is appended to\n"
+				+ "\t-hedge <p>        duplicate requests slower than the p-th latency percentile\n"
+				+ "\t-hedgeUrl <url>   send the duplicates there (default -url)\n"
+				+ "\t-maxPerRoute <n>  connections to one host (default 2 x CPU)\n"
+				+ "\t-maxConnections <n> connections in total (default 4 x CPU)\n"
+				+ "\t-keepAlive <s>    seconds to keep idle connections open (default 30)\n"
+				+ "\t-connectTimeout <ms> time to get a connection (default -deadline or none)\n"
+				+ "\t-socketTimeout <ms>  time to wait for response data (default -deadline or none)\n"
+				+ "\t-stats            print statistics on exit\n"
+				+ "\t-httpCache <MB>   off-heap HTTP response cache size (default 64)\n"
+				+ "\t-metrics <s>      print stage latencies every s seconds (default 0, never)\n"
+				+ "\t-in <file>        read the sentences from the file instead of standard input\n"
+				+ "\t-out <file>       write the split sentences to the file, required with -in\n"
+				+ "\t-server <port>    serve GET/POST /split on the loopback interface, -parallel workers\n"
+				+ "\t-queue <n>        server requests waiting for a worker before 503 (default 64)\n"
+				+ "\t-sentenceCache <n> number of cached split sentences, 0 disables (default 10000)\n"
+				+ "\t-trieMemory <MB>  evict least recently used titles above this size, dictionary not counted (default 0, no limit)\n"
+				+ "\t-trieSpill <file> keep evicted titles in the file and reload them when needed\n";
+	}
+
+	public String getCatalogFile() {
+		return catalogFile;
+	}
+
+	public void setCatalogFile(String catalogFile) {
+		this.catalogFile = catalogFile;
+	}
+
+	public boolean isOffline() {
+		return offline;
+	}
+
+	public void setOffline(boolean offline) {
+		this.offline = offline;
+	}
+
+	public String getIndexFile() {
+		return indexFile;
+	}
+
+	public void setIndexFile(String indexFile) {
+		this.indexFile = indexFile;
+	}
+
+	public boolean isGreedy() {
+		return greedy;
+	}
+
+	public void setGreedy(boolean greedy) {
+		this.greedy = greedy;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * @return read-ahead window, 4 x parallelism unless set
+	 */
+	public int getWindow() {
+		return window == 0 ? 4*parallelism : window;
+	}
+
+	public void setWindow(int window) {
+		this.window = window;
+	}
+
+	public double getRequestRate() {
+		return requestRate;
+	}
+
+	public void setRequestRate(double requestRate) {
+		this.requestRate = requestRate;
+	}
+
+	public int getRequestBurst() {
+		return requestBurst;
+	}
+
+	public void setRequestBurst(int requestBurst) {
+		this.requestBurst = requestBurst;
+	}
+
+	public int getCacheEntries() {
+		return cacheEntries;
+	}
+
+	public void setCacheEntries(int cacheEntries) {
+		this.cacheEntries = cacheEntries;
+	}
+
+	/**
+	 * @return time to live of cached results with tracks in seconds
+	 */
+	public long getCacheTtl() {
+		return cacheTtl;
+	}
+
+	public void setCacheTtl(long cacheTtl) {
+		this.cacheTtl = cacheTtl;
+	}
+
+	/**
+	 * @return time to live of cached results without tracks in seconds
+	 */
+	public long getNegativeCacheTtl() {
+		return negativeCacheTtl;
+	}
+
+	public void setNegativeCacheTtl(long negativeCacheTtl) {
+		this.negativeCacheTtl = negativeCacheTtl;
+	}
+
+	public String getCacheFile() {
+		return cacheFile;
+	}
+
+	public void setCacheFile(String cacheFile) {
+		this.cacheFile = cacheFile;
+	}
+
+	public boolean isAlwaysQuery() {
+		return alwaysQuery;
+	}
+
+	public void setAlwaysQuery(boolean alwaysQuery) {
+		this.alwaysQuery = alwaysQuery;
+	}
+
+	public boolean isAsyncEngine() {
+		return asyncEngine;
+	}
+
+	public void setAsyncEngine(boolean asyncEngine) {
+		this.asyncEngine = asyncEngine;
+	}
+
+	public boolean isEarly() {
+		return early;
+	}
+
+	public void setEarly(boolean early) {
+		this.early = early;
+	}
+
+	/**
+	 * @return milliseconds to split a sentence, 0 for no limit
+	 */
+	public int getDeadline() {
+		return deadline;
+	}
+
+	public void setDeadline(int deadline) {
+		this.deadline = deadline;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	public void setUrl(String url) {
+		this.url = url;
+	}
+
+	/**
+	 * @return latency percentile after which requests are hedged, 0 for no hedging
+	 */
+	public double getHedgePercentile() {
+		return hedgePercentile;
+	}
+
+	public void setHedgePercentile(double hedgePercentile) {
+		this.hedgePercentile = hedgePercentile;
+	}
+
+	public String getHedgeUrl() {
+		return hedgeUrl;
+	}
+
+	public void setHedgeUrl(String hedgeUrl) {
+		this.hedgeUrl = hedgeUrl;
+	}
+
+	public int getMaxPerRoute() {
+		return maxPerRoute;
+	}
+
+	public void setMaxPerRoute(int maxPerRoute) {
+		this.maxPerRoute = maxPerRoute;
+	}
+
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+
+	/**
+	 * @return seconds to keep idle connections open
+	 */
+	public int getKeepAlive() {
+		return keepAlive;
+	}
+
+	public void setKeepAlive(int keepAlive) {
+		this.keepAlive = keepAlive;
+	}
+
+	/**
+	 * @return connect timeout in milliseconds, the deadline if not set
+	 */
+	public int getConnectTimeout() {
+		return connectTimeout > 0 ? connectTimeout : deadline;
+	}
+
+	public void setConnectTimeout(int connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+
+	/**
+	 * @return socket timeout in milliseconds, the deadline if not set
+	 */
+	public int getSocketTimeout() {
+		return socketTimeout > 0 ? socketTimeout : deadline;
+	}
+
+	public void setSocketTimeout(int socketTimeout) {
+		this.socketTimeout = socketTimeout;
+	}
+
+	public boolean isStats() {
+		return stats;
+	}
+
+	public void setStats(boolean stats) {
+		this.stats = stats;
+	}
+
+	/**
+	 * @return megabytes of the off-heap HTTP cache, 0 for the heap cache
+	 */
+	public int getHttpCacheMB() {
+		return httpCacheMB;
+	}
+
+	public void setHttpCacheMB(int httpCacheMB) {
+		this.httpCacheMB = httpCacheMB;
+	}
+
+	/**
+	 * @return seconds between metrics reports, 0 for none
+	 */
+	public int getMetricsPeriod() {
+		return metricsPeriod;
+	}
+
+	public void setMetricsPeriod(int metricsPeriod) {
+		this.metricsPeriod = metricsPeriod;
+	}
+
+	/**
+	 * @return file to read the sentences from, null for standard input
+	 */
+	public String getInputFile() {
+		return inputFile;
+	}
+
+	public void setInputFile(String inputFile) {
+		this.inputFile = inputFile;
+	}
+
+	/**
+	 * @return file to write the split sentences to, null for standard output
+	 */
+	public String getOutputFile() {
+		return outputFile;
+	}
+
+	public void setOutputFile(String outputFile) {
+		this.outputFile = outputFile;
+	}
+
+	/**
+	 * @return port of the server mode, -1 without it
+	 */
+	public int getServerPort() {
+		return serverPort;
+	}
+
+	public void setServerPort(int serverPort) {
+		this.serverPort = serverPort;
+	}
+
+	/**
+	 * @return number of server requests waiting for a worker before new
+	 * 		ones are refused
+	 */
+	public int getServerQueue() {
+		return serverQueue;
+	}
+
+	public void setServerQueue(int serverQueue) {
+		this.serverQueue = serverQueue;
+	}
+
+	/**
+	 * @return number of cached split sentences, 0 for no cache
+	 */
+	public int getSentenceCacheEntries() {
+		return sentenceCacheEntries;
+	}
+
+	public void setSentenceCacheEntries(int sentenceCacheEntries) {
+		this.sentenceCacheEntries = sentenceCacheEntries;
+	}
+
+	/**
+	 * @return estimated size of the title tree in MB above which titles are
+	 * 		evicted, 0 for no limit
+	 */
+	public int getTrieMemoryMB() {
+		return trieMemoryMB;
+	}
+
+	public void setTrieMemoryMB(int trieMemoryMB) {
+		this.trieMemoryMB = trieMemoryMB;
+	}
+
+	/**
+	 * @return file keeping the evicted titles, null to drop them
+	 */
+	public String getTrieSpillFile() {
+		return trieSpillFile;
+	}
+
+	public void setTrieSpillFile(String trieSpillFile) {
+		this.trieSpillFile = trieSpillFile;
+	}
+
+}
@@ -0,0 +1,214 @@
+package s2s;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of parsed remote query results, keyed by the normalized query.
+ *
+ * Queries without any track are cached too (negative entries), usually with
+ * a shorter time to live. The least recently used entry is evicted when the
+ * cache is full. Optionally the cache is backed by a file which is loaded
+ * when the cache is created and written by save().
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class QueryCache {
+
+	private static final int MAGIC = 0x53325143; // "S2QC"
+
+	private final int maxEntries;
+	private final long ttl;
+	private final long negativeTtl;
+	private final File storeFile;
+
+	private LinkedHashMap<String,Entry> entries;
+
+	private long hits;
+	private long misses;
+
+	/**
+	 * @param maxEntries maximal number of cached queries
+	 * @param ttlMillis time to live of results with tracks
+	 * @param negativeTtlMillis time to live of results without tracks
+	 * @param storeFile backing file, may be null
+	 * @throws IOException if the backing file exists and can't be read
+	 */
+	public QueryCache(final int maxEntries, long ttlMillis, long negativeTtlMillis,
+			File storeFile) throws IOException {
+
+		this.maxEntries = maxEntries;
+		this.ttl = ttlMillis;
+		this.negativeTtl = negativeTtlMillis;
+		this.storeFile = storeFile;
+
+		entries = new LinkedHashMap<String,Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String,QueryCache.Entry> eldest) {
+				return size() > QueryCache.this.maxEntries;
+			}
+		};
+
+		if ( storeFile != null && storeFile.exists() )
+			load();
+	}
+
+	/**
+	 * @param query normalized query
+	 * @return cached tracks, empty list for a query known to have no tracks,
+	 * 		null if the query is not cached or expired
+	 */
+	public synchronized List<Track> get(String query) {
+
+		Entry e = entries.get(query);
+
+		if ( e != null && e.expires < System.currentTimeMillis() ) {
+			entries.remove(query);
+			e = null;
+		}
+
+		if ( e == null ) {
+			misses++;
+			return null;
+		}
+
+		hits++;
+		return Collections.unmodifiableList(Arrays.asList(e.tracks));
+	}
+
+	/**
+	 * @param query normalized query
+	 * @return true if the query is cached as having no tracks
+	 */
+	public synchronized boolean isNegative(String query) {
+		Entry e = entries.get(query);
+		return e != null && e.tracks.length == 0 && e.expires >= System.currentTimeMillis();
+	}
+
+	/**
+	 * @param query normalized query
+	 * @param tracks result of the query, may be empty
+	 */
+	public void put(String query, List<Track> tracks) {
+		long expires = System.currentTimeMillis() + (tracks.isEmpty() ? negativeTtl : ttl);
+		Entry e = new Entry(tracks.toArray(new Track[tracks.size()]), expires);
+		synchronized (this) {
+			entries.put(query, e);
+		}
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Writes the entries which did not expire yet to the backing file.
+	 * @throws IOException
+	 */
+	public void save() throws IOException {
+
+		if ( storeFile == null )
+			return;
+
+		List<Map.Entry<String,Entry>> snapshot;
+		synchronized (this) {
+			snapshot = new ArrayList<Map.Entry<String,Entry>>(entries.entrySet());
+		}
+
+		long now = System.currentTimeMillis();
+		File tmp = new File(storeFile.getPath() + ".tmp");
+		DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+
+		try {
+			out.writeInt(MAGIC);
+			// least recently used first, so loading keeps the order
+			for ( Map.Entry<String,Entry> me : snapshot ) {
+				Entry e = me.getValue();
+				if ( e.expires < now )
+					continue;
+				out.writeBoolean(true);
+				out.writeUTF(me.getKey());
+				out.writeLong(e.expires);
+				out.writeInt(e.tracks.length);
+				for ( Track t : e.tracks ) {
+					out.writeUTF(t.getUrl());
+					out.writeUTF(t.getName());
+				}
+			}
+			out.writeBoolean(false);
+		} finally {
+			out.close();
+		}
+
+		if ( storeFile.exists() && !storeFile.delete() )
+			throw new IOException("can't replace " + storeFile);
+		if ( !tmp.renameTo(storeFile) )
+			throw new IOException("can't rename " + tmp + " to " + storeFile);
+	}
+
+	private void load() throws IOException {
+
+		long now = System.currentTimeMillis();
+		DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(storeFile), 1 << 16));
+
+		try {
+			if ( in.readInt() != MAGIC )
+				throw new IOException("not a query cache file: " + storeFile);
+
+			while ( in.readBoolean() ) {
+				String query = in.readUTF();
+				long expires = in.readLong();
+				Track[] tracks = new Track[in.readInt()];
+				for ( int i=0;i<tracks.length;i++ ) {
+					String url = in.readUTF();
+					tracks[i] = new Track(in.readUTF(), url);
+				}
+				if ( expires >= now )
+					entries.put(query, new Entry(tracks, expires));
+			}
+		} catch (EOFException e) {
+			// truncated file, keep what was read
+		} finally {
+			in.close();
+		}
+	}
+
+	private static class Entry {
+
+		final Track[] tracks;
+		final long expires;
+
+		Entry(Track[] tracks, long expires) {
+			this.tracks = tracks;
+			this.expires = expires;
+		}
+	}
+
+}
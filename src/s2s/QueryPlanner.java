@@ -0,0 +1,86 @@
+package s2s;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides which remote queries are needed for a sentence.
+ *
+ * Words are queried one by one, short words are concatenated with the next
+ * word and queried together, so there are no queries for words as 'I','we',
+ * etc. The whole sentence is queried as well.
+ *
+ * When the coverage of the sentence by already known titles is given, words
+ * covered by a known title are not queried and a fully covered sentence needs
+ * no query at all. Queries known to have no tracks are skipped too.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class QueryPlanner {
+
+	private static final int SHORT_WORD_LEN = 3;
+
+	private QueryCache queryCache;
+
+	/**
+	 * @param queryCache cache consulted for queries without tracks, may be null
+	 */
+	public QueryPlanner(QueryCache queryCache) {
+		this.queryCache = queryCache;
+	}
+
+	/**
+	 * @param sentence
+	 * @param words words of the sentence
+	 * @param covered covered[i] is true if words[i] is part of a known title,
+	 * 		null to query all words
+	 * @return queries to run
+	 */
+	public List<String> plan(String sentence, String[] words, boolean[] covered) {
+
+		List<String> queries = new ArrayList<String>();
+		boolean uncovered = false;
+		String prevWord = "";
+
+		for ( int i=0;i<words.length;i++ ) {
+
+			String w = words[i];
+
+			// known words break the span of unknown ones
+			if ( covered != null && covered[i] ) {
+				prevWord = "";
+				continue;
+			}
+			uncovered = true;
+
+			// the word is too short, save it for the next iteration
+			if ( w.length() < SHORT_WORD_LEN ) {
+				prevWord = w;
+				continue;
+			}
+
+			// there is a word saved from previous iteration
+			if ( prevWord.length() != 0 )
+				add(queries, prevWord.concat(" ").concat(w));
+			else
+				add(queries, w);
+
+			prevWord = "";
+		}
+
+		// ask for the whole sentence as well, unless all of it is known
+		if ( uncovered )
+			add(queries, sentence);
+
+		return queries;
+	}
+
+	private void add(List<String> queries, String query) {
+		if ( queryCache != null && queryCache.isNegative(SpotifyAdapter.normalizeQuery(query)) )
+			return;
+		queries.add(query);
+	}
+
+}
@@ -0,0 +1,31 @@
+package s2s;
+
+import java.io.IOException;
+
+/**
+ * Thrown by a track source when the remote side refused a request because
+ * the request rate limit was exceeded (HTTP 429).
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class RateLimitedException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final long retryAfterMillis;
+
+	public RateLimitedException(String message, long retryAfterMillis) {
+		super(message);
+		this.retryAfterMillis = retryAfterMillis;
+	}
+
+	/**
+	 * @return how long the remote side asked to wait before the next request
+	 */
+	public long getRetryAfterMillis() {
+		return retryAfterMillis;
+	}
+
+}
@@ -0,0 +1,77 @@
+package s2s;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free request rate limiter shared by all query workers.
+ *
+ * Implements the generic cell rate algorithm (a token bucket expressed as a
+ * single timestamp): every permit moves the theoretical arrival time (TAT) by
+ * one emission interval and a permit is granted once the TAT is at most
+ * (burst-1) intervals ahead of now. Callers reserve their slot by a CAS on the
+ * TAT and then sleep until it comes, so permits are handed out in reservation
+ * order and the rate is kept exactly, without rounding to time slots.
+ *
+ * In any time window of length t at most burst + rate*t permits are granted.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class RateLimiter {
+
+	private final long interval;
+	private final long tolerance;
+	private final AtomicLong tat;
+
+	/**
+	 * @param permitsPerSecond sustained rate
+	 * @param burst number of permits which may be granted at once
+	 */
+	public RateLimiter(double permitsPerSecond, int burst) {
+		interval = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+		tolerance = (Math.max(burst, 1) - 1) * interval;
+		tat = new AtomicLong(System.nanoTime());
+	}
+
+	/**
+	 * Reserves a permit without waiting.
+	 * @return nanoseconds the caller has to wait before using the permit
+	 */
+	public long reserve() {
+		for (;;) {
+			long now = System.nanoTime();
+			long t = tat.get();
+			long next = Math.max(t, now) + interval;
+			if ( tat.compareAndSet(t, next) )
+				return Math.max(0, t - tolerance - now);
+		}
+	}
+
+	/**
+	 * Waits until a permit is available.
+	 * @throws InterruptedException
+	 */
+	public void acquire() throws InterruptedException {
+		long wait = reserve();
+		if ( wait > 0 )
+			TimeUnit.NANOSECONDS.sleep(wait);
+	}
+
+	/**
+	 * Pushes the next permit at least the given time into the future, e.g. on
+	 * a HTTP 429 response with a Retry-After header. Permits reserved before
+	 * are not affected.
+	 * @param delayMillis
+	 */
+	public void penalize(long delayMillis) {
+		long earliest = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis) + tolerance;
+		for (;;) {
+			long t = tat.get();
+			if ( t >= earliest || tat.compareAndSet(t, earliest) )
+				return;
+		}
+	}
+
+}
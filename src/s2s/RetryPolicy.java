@@ -0,0 +1,74 @@
+package s2s;
+
+/**
+ * Retry rules of a remote query, shared by the blocking (ParallelQueryExec)
+ * and the non-blocking (AsyncQueryExec) engine.
+ *
+ * A request refused because of the rate limit makes all workers back off
+ * and is sent again, at most MAX_RATE_LIMITED_RETRIES times. A failed
+ * request counts against the circuit breaker and is sent again after an
+ * exponential backoff, at most MAX_FAILED_RETRIES times and only while the
+ * breaker allows it. A query given up is counted and its error printed.
+ *
+ * @author rzvoncek
+ *
+ */
+
+class RetryPolicy {
+
+	static final int MAX_RATE_LIMITED_RETRIES = 3;
+	static final int MAX_FAILED_RETRIES = 2;
+	static final long RETRY_BASE_DELAY = 100; // ms
+	static final long RETRY_MAX_DELAY = 2000; // ms
+
+	private final SpotifyAdapter spotify;
+
+	RetryPolicy(SpotifyAdapter spotify) {
+		this.spotify = spotify;
+	}
+
+	/**
+	 * Makes all workers back off as the remote side asked.
+	 * @param e
+	 * @param attempt number of previous attempts
+	 * @return true if the query is to be sent again
+	 */
+	boolean retryRateLimited(RateLimitedException e, int attempt) {
+
+		Metrics.RATE_LIMITED.increment();
+		spotify.getRateLimiter().penalize(e.getRetryAfterMillis());
+
+		if ( attempt < MAX_RATE_LIMITED_RETRIES )
+			return true;
+
+		giveUp(e);
+		return false;
+	}
+
+	/**
+	 * Records the failure with the circuit breaker.
+	 * @param e
+	 * @param failures number of previous failed attempts
+	 * @return pause in milliseconds before the query is sent again, -1 to
+	 * 		give up
+	 */
+	long retryFailed(Throwable e, int failures) {
+
+		spotify.recordFailure();
+
+		// retry after a growing pause, unless the breaker opened
+		if ( failures < MAX_FAILED_RETRIES && spotify.getCircuitBreaker().allowRequest() ) {
+			Metrics.RETRIES.increment();
+			return CircuitBreaker.backoff(RETRY_BASE_DELAY, RETRY_MAX_DELAY, failures);
+		}
+
+		giveUp(e);
+		return -1;
+	}
+
+	private static void giveUp(Throwable e) {
+		Metrics.QUERY_FAILURES.increment();
+		System.err.println(e.getMessage());
+	}
+
+}
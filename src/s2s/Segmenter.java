@@ -0,0 +1,133 @@
+package s2s;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits a sentence into known song titles using dynamic programming.
+ *
+ * The tree is walked once from every word position, which gives all titles
+ * starting there. The optimal split is then solved from the end of the
+ * sentence: first minimizing the number of unmatched words, then the number
+ * of tracks. Unlike the greedy longest-prefix search it can pick "a b" + "c d"
+ * over "a b c" + unmatched "d".
+ *
+ * Runs in O(n * longest title) for a sentence of n words.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class Segmenter {
+
+	private TrackTreeRoot trackTree;
+
+	public Segmenter(TrackTreeRoot trackTree) {
+		this.trackTree = trackTree;
+	}
+
+	/**
+	 * Splits the words into tracks. Unmatched words are represented by
+	 * tracks with blank URI.
+	 * @param words
+	 * @return List of tracks.
+	 */
+	public List<Track> split(String[] words) {
+
+		int n = words.length;
+		List<Track> result = new ArrayList<Track>();
+
+		Split split = solve(words);
+
+		for ( int i=0;i<n;i+=split.takeLen[i] ) {
+			if ( split.takeTrack[i] == null )
+				result.add(new Track(words[i],""));
+			else
+				result.add(split.takeTrack[i]);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Finds which words are part of a known title in the optimal split.
+	 * @param words
+	 * @return covered[i] is true if words[i] is matched by a track
+	 */
+	public boolean[] coverage(String[] words) {
+
+		boolean[] covered = new boolean[words.length];
+		Split split = solve(words);
+
+		for ( int i=0;i<words.length;i+=split.takeLen[i] ) {
+			if ( split.takeTrack[i] != null ) {
+				for ( int j=i;j<i+split.takeLen[i];j++ )
+					covered[j] = true;
+			}
+		}
+
+		return covered;
+	}
+
+	/**
+	 * Solves the optimal split.
+	 * @param words
+	 * @return the split, to be walked from position 0
+	 */
+	private Split solve(String[] words) {
+
+		int n = words.length;
+
+		// cost[i] = unmatched*(n+1) + tracks for the best split of words[i..n)
+		long[] cost = new long[n+1];
+		int[] takeLen = new int[n];
+		Track[] takeTrack = new Track[n];
+		Track[] matches = new Track[n+1];
+
+		// translate the words to IDs once for all the walks
+		int[] ids = trackTree.getDictionary().lookup(words);
+
+		cost[n] = 0;
+
+		for ( int i=n-1;i>=0;i-- ) {
+
+			// leave the word unmatched
+			cost[i] = cost[i+1] + n + 1;
+			takeLen[i] = 1;
+			takeTrack[i] = null;
+
+			int longest = trackTree.findTitles(words, ids, i, matches);
+
+			for ( int len=1;len<=longest;len++ ) {
+				if ( matches[len] == null )
+					continue;
+				long c = cost[i+len] + 1;
+				// prefer longer titles on ties
+				if ( c <= cost[i] ) {
+					cost[i] = c;
+					takeLen[i] = len;
+					takeTrack[i] = matches[len];
+				}
+				matches[len] = null;
+			}
+		}
+
+		return new Split(takeLen, takeTrack);
+	}
+
+	/**
+	 * Best split of every suffix: the number of words and the track (null for
+	 * an unmatched word) taken at each position.
+	 */
+	private static class Split {
+
+		final int[] takeLen;
+		final Track[] takeTrack;
+
+		Split(int[] takeLen, Track[] takeTrack) {
+			this.takeLen = takeLen;
+			this.takeTrack = takeTrack;
+		}
+	}
+
+}
@@ -0,0 +1,128 @@
+package s2s;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of split sentences, keyed by the sanitized sentence.
+ *
+ * A split depends only on the titles starting with one of the words of the
+ * sentence. Every entry remembers the version of the tree it was segmented
+ * by and stays valid as long as no title starting with one of its words
+ * was added since, see TrackTreeRoot.getStamp. Titles evicted from the tree
+ * don't invalidate entries: the cached split is still made of real tracks,
+ * and with a spill file the titles come back on the next lookup anyway. The
+ * least recently used entry is evicted when the cache is full.
+ *
+ * Partial splits are not cached, the next request may do better.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class SentenceCache {
+
+	private final int maxEntries;
+	private final TrackTreeRoot trackTree;
+
+	private LinkedHashMap<String,Entry> entries;
+
+	private long hits;
+	private long misses;
+	private long invalidations;
+
+	/**
+	 * @param maxEntries maximal number of cached sentences
+	 * @param trackTree the tree the sentences are split by
+	 */
+	public SentenceCache(final int maxEntries, TrackTreeRoot trackTree) {
+
+		this.maxEntries = maxEntries;
+		this.trackTree = trackTree;
+
+		entries = new LinkedHashMap<String,Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String,SentenceCache.Entry> eldest) {
+				return size() > SentenceCache.this.maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * @param sentence sanitized sentence
+	 * @param words words of the sentence
+	 * @return copy of the cached split, null if the sentence is not cached
+	 * 		or titles starting with its words changed since it was split
+	 */
+	public TrackList get(String sentence, String[] words) {
+
+		Entry e;
+		synchronized (this) {
+			e = entries.get(sentence);
+		}
+
+		// checked outside of the lock, it walks the dictionary and the tree
+		boolean valid = e != null && trackTree.getStamp(words) <= e.version;
+
+		synchronized (this) {
+			if ( !valid ) {
+				if ( e != null && entries.get(sentence) == e ) {
+					entries.remove(sentence);
+					invalidations++;
+				}
+				misses++;
+				return null;
+			}
+			hits++;
+		}
+
+		return new TrackList(e.tracks);
+	}
+
+	/**
+	 * @param sentence sanitized sentence
+	 * @param tracks complete split of the sentence
+	 * @param version tree version read before the sentence was segmented,
+	 * 		see TrackTreeRoot.getVersion
+	 */
+	public void put(String sentence, List<Track> tracks, long version) {
+		Entry e = new Entry(new TrackList(tracks), version);
+		synchronized (this) {
+			entries.put(sentence, e);
+		}
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return number of entries dropped because their titles changed
+	 */
+	public synchronized long getInvalidations() {
+		return invalidations;
+	}
+
+	private static class Entry {
+
+		final List<Track> tracks;
+		final long version;
+
+		Entry(List<Track> tracks, long version) {
+			this.tracks = tracks;
+			this.version = version;
+		}
+	}
+
+}
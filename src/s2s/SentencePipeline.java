@@ -0,0 +1,101 @@
+package s2s;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Splits sentences concurrently while handing the results over in input order.
+ *
+ * At most window sentences are in flight. Their futures are queued in input
+ * order, which makes the queue the reorder buffer: submitting into a full
+ * window first waits for and emits the oldest sentence.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class SentencePipeline {
+
+	private SentenceSplitter splitter;
+	private ResultHandler handler;
+	private final int window;
+
+	private ExecutorService splitExecutor;
+	private ArrayDeque<Future<List<Track>>> inFlight;
+
+	/**
+	 * @param splitter
+	 * @param parallelism number of sentences split at the same time
+	 * @param window maximal number of sentences read ahead
+	 * @param handler receives the results in input order
+	 */
+	public SentencePipeline(SentenceSplitter splitter, int parallelism, int window,
+			ResultHandler handler) {
+		this.splitter = splitter;
+		this.handler = handler;
+		this.window = Math.max(window, parallelism);
+
+		splitExecutor = Executors.newFixedThreadPool(parallelism);
+		inFlight = new ArrayDeque<Future<List<Track>>>(this.window);
+	}
+
+	/**
+	 * Schedules splitting of the sentence. Blocks while the window is full.
+	 * @param sentence
+	 * @throws Exception the failure of a split or the handler
+	 */
+	public void submit(final String sentence) throws Exception {
+
+		if ( inFlight.size() == window )
+			emitOldest();
+
+		inFlight.add(splitExecutor.submit(new Callable<List<Track>>() {
+			@Override
+			public List<Track> call() throws Exception {
+				return splitter.splitToTracks(sentence);
+			}
+		}));
+	}
+
+	/**
+	 * Waits for and emits all sentences still in flight.
+	 * @throws Exception the failure of a split or the handler
+	 */
+	public void finish() throws Exception {
+		while ( !inFlight.isEmpty() )
+			emitOldest();
+	}
+
+	/**
+	 * Stops the split workers. Sentences not emitted yet are dropped.
+	 */
+	public void shutDown() {
+		for ( Future<List<Track>> f : inFlight )
+			f.cancel(true);
+		inFlight.clear();
+		splitExecutor.shutdown();
+	}
+
+	private void emitOldest() throws Exception {
+		try {
+			handler.handle(inFlight.poll().get());
+		} catch (ExecutionException e) {
+			if ( e.getCause() instanceof Exception )
+				throw (Exception) e.getCause();
+			throw e;
+		}
+	}
+
+	/**
+	 * Receives split sentences in input order.
+	 */
+	public interface ResultHandler {
+		public void handle(List<Track> tracks) throws Exception;
+	}
+
+}
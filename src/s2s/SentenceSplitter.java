@@ -1,11 +1,16 @@
 package s2s;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Class responsible for splitting the sentences. 
+ * 
+ * Sentences may be split concurrently from several threads.
  * @author rzvoncek
  *
  */
@@ -14,31 +19,195 @@ public class SentenceSplitter {
 
 	private TrackTreeRoot trackTree;
 	private SpotifyAdapter spotify;
+	private File indexFile;
+	private Segmenter segmenter;
+	private boolean greedy;
+	private boolean alwaysQuery;
+	private boolean early;
+	private long timeoutNanos = Long.MAX_VALUE;
+	private TrackSource remoteSource;
+	private boolean stats;
+	private Metrics metrics;
+	private SentenceCache sentenceCache;
 	
 	public SentenceSplitter() {
 		trackTree = new TrackTreeRoot();
 		spotify = new SpotifyAdapter();
+		spotify.setTrackSink(trackTree);
+		segmenter = new Segmenter(trackTree);
+		alwaysQuery = true;
+		metrics = Metrics.register(trackTree, spotify);
 	}
 
+	/**
+	 * Creates a splitter with track sources chosen by the given options.
+	 * @param options
+	 * @throws IOException if the local catalog or the index can't be loaded
+	 */
+	public SentenceSplitter(Options options) throws IOException {
+
+		MappedTrackIndex index = null;
+
+		if ( options.getIndexFile() != null ) {
+			indexFile = new File(options.getIndexFile());
+			if ( indexFile.exists() )
+				index = MappedTrackIndex.open(indexFile);
+		}
+
+		trackTree = new TrackTreeRoot(index);
+		if ( options.getTrieMemoryMB() > 0 ) {
+			trackTree.setMemoryBudget((long) options.getTrieMemoryMB() << 20);
+			if ( options.getTrieSpillFile() != null )
+				trackTree.setSpill(new TrackSpill(new File(options.getTrieSpillFile())));
+		}
+		segmenter = new Segmenter(trackTree);
+		greedy = options.isGreedy();
+		alwaysQuery = options.isAlwaysQuery();
+		early = options.isEarly();
+		stats = options.isStats();
+
+		TrackSource localSource = null;
+
+		if ( options.getDeadline() > 0 )
+			timeoutNanos = TimeUnit.MILLISECONDS.toNanos(options.getDeadline());
+
+		if ( options.getCatalogFile() != null )
+			localSource = new CatalogTrackSource(options.getCatalogFile());
+		if ( !options.isOffline() )
+			remoteSource = createRemoteSource(options, options.getUrl());
+
+		spotify = new SpotifyAdapter(localSource, remoteSource,
+				new RateLimiter(options.getRequestRate(), options.getRequestBurst()));
+
+		// requests slower than a sentence may take count against the endpoint
+		if ( options.getDeadline() > 0 )
+			spotify.setSlowCall(timeoutNanos);
+
+		if ( remoteSource != null && options.getHedgePercentile() > 0 ) {
+			spotify.setHedging(options.getHedgeUrl() == null ? remoteSource
+					: createRemoteSource(options, options.getHedgeUrl()),
+					options.getHedgePercentile());
+		}
+		// remote tracks go straight from the parser into the tree
+		spotify.setTrackSink(trackTree);
+
+		if ( options.getCacheEntries() > 0 ) {
+			spotify.setQueryCache(new QueryCache(options.getCacheEntries(),
+					options.getCacheTtl()*1000, options.getNegativeCacheTtl()*1000,
+					options.getCacheFile() == null ? null : new File(options.getCacheFile())));
+		}
+
+		if ( options.getSentenceCacheEntries() > 0 )
+			sentenceCache = new SentenceCache(options.getSentenceCacheEntries(), trackTree);
+
+		metrics = Metrics.register(trackTree, spotify);
+		if ( options.getMetricsPeriod() > 0 )
+			metrics.startReporting(options.getMetricsPeriod() * 1000L);
+	}
+
+	/**
+	 * @param options
+	 * @param url search URL
+	 * @return remote source of the engine chosen by the options
+	 */
+	private static TrackSource createRemoteSource(Options options, String url) {
+
+		if ( options.isAsyncEngine() ) {
+			AsyncHttpTrackSource source = new AsyncHttpTrackSource(url);
+			// a response arriving after the deadline is of no use
+			source.setConnectTimeout(options.getConnectTimeout());
+			source.setSocketTimeout(options.getSocketTimeout());
+			return source;
+		}
+
+		HttpTrackSource source = new HttpTrackSource(url,
+				options.getMaxPerRoute(), options.getMaxConnections(),
+				(long) options.getHttpCacheMB() << 20);
+		source.setConnectTimeout(options.getConnectTimeout());
+		source.setSocketTimeout(options.getSocketTimeout());
+		source.setKeepAlive(options.getKeepAlive() * 1000L);
+		return source;
+	}
 	
 	/**
 	 * Splits sentence into chunks according to known song titles. Known tracks have
 	 * Spotify URI attached. Unmatched chunks are represented by tracks by blank URI.
+	 * When the deadline passes before all remote queries finished, the sentence
+	 * is split by the titles known at that moment and the result is partial.
 	 * @param sentence
 	 * @return List of tracks. 
 	 */
-	public List<Track> splitToTracks(String sentence) {
+	public TrackList splitToTracks(String sentence) {
 
-		List<Track> result = new ArrayList<Track>();
+		long start = System.nanoTime();
+		final String[] words = SentenceSplitter.splitToWords(sentence);
 
-		String[] words = SentenceSplitter.splitToWords(sentence);
+		// repeated sentence, and no title starting with one of its words changed
+		if ( sentenceCache != null ) {
+			TrackList cached = sentenceCache.get(sentence, words);
+			if ( cached != null ) {
+				Metrics.SPLIT.recordSince(start);
+				return cached;
+			}
+		}
 
-		// pull the song titles from Spotify
-		trackTree.importTracks(
-				spotify.fetchTracks(sentence, words));
+		// stop waiting for Spotify once every word is part of a known title
+		SpotifyAdapter.CompletionCheck check = null;
+		if ( early ) {
+			check = new SpotifyAdapter.CompletionCheck() {
+				@Override
+				public boolean isComplete() {
+					return isCovered(words);
+				}
+			};
+		}
+
+		// pull the song titles from Spotify, only for words not known yet
+		boolean[] covered = alwaysQuery ? null : segmenter.coverage(words);
+		long timeout = timeoutNanos == Long.MAX_VALUE
+				? timeoutNanos : timeoutNanos - (System.nanoTime() - start);
+		TrackList fetched = spotify.fetchTracks(sentence, words, covered, check, timeout);
+		trackTree.importTracks(fetched);
+		
+		// the tracks fetched for this sentence are part of this version
+		long version = trackTree.getVersion();
+		long segmented = System.nanoTime();
+		TrackList result = new TrackList(greedy ? splitGreedy(words) : segmenter.split(words));
+		result.setPartial(fetched.isPartial());
+		Metrics.SEGMENT.recordSince(segmented);
 		
+		if ( sentenceCache != null && !result.isPartial() )
+			sentenceCache.put(sentence, result, version);
+		
+		Metrics.SPLIT.recordSince(start);
+		return result;
+	}
+
+	/**
+	 * @param words
+	 * @return true if every word is part of a known title
+	 */
+	private boolean isCovered(String[] words) {
+		for ( boolean c : segmenter.coverage(words) ) {
+			if ( !c )
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Original splitting by repeatedly cutting the longest known prefix.
+	 * @param words
+	 * @return List of tracks.
+	 */
+	private List<Track> splitGreedy(String[] words) {
+
+		List<Track> result = new ArrayList<Track>();
 		SentencePrefix prefix;
 
+		if ( words.length == 0 )
+			return result;
+
 		do { 
 			
 			prefix = trackTree.findLongestPrefix(words);
@@ -79,14 +248,89 @@ public class SentenceSplitter {
 	 */
 	public static String[] splitToWords(String sentence) {
 		
-		String s = InputReader.sanitize(sentence);
-		
-		return s.split(" ");
+		return Tokenizer.split(sentence);
 		
 	}
 	
+	/**
+	 * @return cache of split sentences, null if disabled
+	 */
+	SentenceCache getSentenceCache() {
+		return sentenceCache;
+	}
+
 	public void shutDown() {
 		spotify.shutDown();
+		metrics.unregister();
+
+		if ( stats )
+			printStats();
+
+		if ( indexFile != null ) {
+			try {
+				trackTree.writeIndex(indexFile);
+			} catch (IOException e) {
+				System.err.println("ERROR: " + e.getMessage());
+			}
+		}
+
+		// after the index, which includes the spilled titles
+		TrackSpill spill = trackTree.getSpill();
+		if ( spill != null ) {
+			try {
+				spill.close();
+			} catch (IOException e) {
+				System.err.println("ERROR: " + e.getMessage());
+			}
+		}
 	}
 	
+	/**
+	 * Prints what happened to the remote queries to standard error.
+	 */
+	private void printStats() {
+
+		if ( sentenceCache != null ) {
+			System.err.println("sentence cache: " + sentenceCache.getHits() + " hits, "
+					+ sentenceCache.getMisses() + " misses, "
+					+ sentenceCache.getInvalidations() + " invalidated");
+		}
+
+		QueryCache queryCache = spotify.getQueryCache();
+		if ( queryCache != null ) {
+			System.err.println("query cache: " + queryCache.getHits() + " hits, "
+					+ queryCache.getMisses() + " misses");
+		}
+
+		TrackSpill spill = trackTree.getSpill();
+		if ( spill != null ) {
+			System.err.println("title spill: " + spill.size() + " branches, "
+					+ spill.getFileBytes() + " bytes in the file");
+		}
+
+		System.err.println("hedged requests: " + spotify.getHedgeCount() + " sent, "
+				+ spotify.getHedgeWinCount() + " won");
+		System.err.println("circuit breaker: " + spotify.getCircuitBreaker().getState() + ", "
+				+ spotify.getCircuitBreaker().getTripCount() + " trips");
+
+		if ( remoteSource instanceof HttpTrackSource ) {
+			MeteredConnectionManager pool = ((HttpTrackSource) remoteSource).getConnectionManager();
+			long leases = pool.getLeaseCount();
+			System.err.println(String.format("connection pool: %d leases, %.3f ms average wait, %.3f ms max wait",
+					leases, leases == 0 ? 0.0 : pool.getLeaseWaitNanos() / 1e6 / leases,
+					pool.getMaxLeaseWaitNanos() / 1e6));
+
+			OffHeapCacheStorage cache = ((HttpTrackSource) remoteSource).getCacheStorage();
+			if ( cache != null ) {
+				System.err.println("HTTP cache: " + cache.size() + " entries, "
+						+ cache.getUsedBytes() + " of " + cache.getAllocatedBytes() + " allocated bytes (at most "
+						+ cache.getCapacityBytes() + "), "
+						+ cache.getHits() + " hits, " + cache.getMisses() + " misses, "
+						+ cache.getEvictions() + " evictions");
+			}
+		}
+
+		metrics.print(System.err);
+	}
+
 }
@@ -0,0 +1,261 @@
+package s2s;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Keeps one splitter, with its tree, caches and connection pools, serving
+ * sentences over HTTP on the loopback interface:
+ *
+ * 	GET /split?q=<sentence>   or   POST /split with the sentence as body
+ *
+ * The response body is the split sentence in the format of the standard
+ * output. The X-Queue-Millis and X-Split-Millis headers tell how long the
+ * request waited for a worker and how long the split took, X-Partial is
+ * true when not all remote queries were answered in time.
+ *
+ * The HTTP dispatcher thread only hands requests to a fixed number of
+ * workers through a bounded queue. When the queue is full the request is
+ * answered right away with 503 and Retry-After, instead of piling up.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class SplitServer {
+
+	private static final String PATH = "/split";
+	private static final String CONTENT_TYPE = "text/plain; charset=utf-8";
+	private static final int SC_OK = 200;
+	private static final int SC_BAD_REQUEST = 400;
+	private static final int SC_NOT_FOUND = 404;
+	private static final int SC_METHOD_NOT_ALLOWED = 405;
+	private static final int SC_INTERNAL_ERROR = 500;
+	private static final int SC_UNAVAILABLE = 503;
+	private static final int MAX_SENTENCE_BYTES = 64 << 10;
+	private static final int STOP_DELAY = 1; // s
+
+	private SentenceSplitter splitter;
+	private HttpServer server;
+	private ThreadPoolExecutor workers;
+
+	/**
+	 * @param splitter shared by all requests
+	 * @param port
+	 * @param threads number of sentences split at the same time
+	 * @param queueSize number of requests waiting for a worker before new
+	 * 		ones are refused
+	 * @throws IOException if the port can't be bound
+	 */
+	public SplitServer(SentenceSplitter splitter, int port, int threads, int queueSize)
+			throws IOException {
+
+		this.splitter = splitter;
+
+		workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(queueSize));
+
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				dispatch(exchange);
+			}
+		});
+		// handlers run on the dispatcher thread and must not block
+		server.setExecutor(null);
+
+		Metrics.setServerQueue(workers);
+	}
+
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * @return the bound port, useful when created with port 0
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Stops accepting requests, lets the accepted ones finish and shuts the
+	 * splitter down.
+	 */
+	public void stop() {
+
+		server.stop(STOP_DELAY);
+		workers.shutdown();
+
+		try {
+			workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} catch (InterruptedException e) {
+			System.err.println("ERROR: " + e.getMessage());
+		}
+
+		splitter.shutDown();
+		Metrics.setServerQueue(null);
+	}
+
+	private void dispatch(final HttpExchange exchange) throws IOException {
+
+		if ( !PATH.equals(exchange.getRequestURI().getPath()) ) {
+			respond(exchange, SC_NOT_FOUND, "not found\n");
+			return;
+		}
+
+		final long queued = System.nanoTime();
+
+		try {
+			workers.execute(new Runnable() {
+				@Override
+				public void run() {
+					serve(exchange, queued);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// too much work already, the client should come back later
+			Metrics.SHED.increment();
+			exchange.getResponseHeaders().set("Retry-After", "1");
+			respond(exchange, SC_UNAVAILABLE, "overloaded\n");
+		}
+	}
+
+	private void serve(HttpExchange exchange, long queued) {
+
+		long started = System.nanoTime();
+		Metrics.QUEUE.record(started - queued);
+
+		try {
+
+			String sentence = readSentence(exchange);
+			if ( sentence == null )
+				return;
+
+			List<Track> tracks = splitter.splitToTracks(InputReader.sanitize(sentence));
+			long split = System.nanoTime() - started;
+
+			exchange.getResponseHeaders().set("X-Queue-Millis", millis(started - queued));
+			exchange.getResponseHeaders().set("X-Split-Millis", millis(split));
+			exchange.getResponseHeaders().set("X-Partial",
+					String.valueOf(tracks instanceof TrackList && ((TrackList) tracks).isPartial()));
+			respond(exchange, SC_OK, InputReader.format(tracks));
+
+		} catch (Exception e) {
+			System.err.println("ERROR: " + e.getMessage());
+			try {
+				respond(exchange, SC_INTERNAL_ERROR, "split failed\n");
+			} catch (IOException ignored) {
+				// the client is gone
+			}
+		}
+	}
+
+	/**
+	 * @return sentence from the q parameter or the request body, null if
+	 * 		the request was answered with an error already
+	 */
+	private static String readSentence(HttpExchange exchange) throws IOException {
+
+		String method = exchange.getRequestMethod();
+
+		if ( "GET".equals(method) ) {
+			String sentence;
+			try {
+				sentence = parameter(exchange.getRequestURI().getRawQuery(), "q");
+			} catch (IllegalArgumentException e) {
+				// a malformed escape, e.g. %zz
+				respond(exchange, SC_BAD_REQUEST, "malformed query string\n");
+				return null;
+			}
+			if ( sentence == null )
+				respond(exchange, SC_BAD_REQUEST, "missing q parameter\n");
+			return sentence;
+		}
+
+		if ( "POST".equals(method) ) {
+			InputStream in = exchange.getRequestBody();
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			byte[] buffer = new byte[4096];
+			int read;
+			while ( (read = in.read(buffer)) != -1 ) {
+				body.write(buffer, 0, read);
+				if ( body.size() > MAX_SENTENCE_BYTES ) {
+					respond(exchange, SC_BAD_REQUEST, "sentence too long\n");
+					return null;
+				}
+			}
+			String sentence = body.toString("UTF-8");
+			// a sentence is a line, the client may have terminated it
+			if ( sentence.endsWith("\n") )
+				sentence = sentence.substring(0, sentence.length() - 1);
+			if ( sentence.endsWith("\r") )
+				sentence = sentence.substring(0, sentence.length() - 1);
+			return sentence;
+		}
+
+		exchange.getResponseHeaders().set("Allow", "GET, POST");
+		respond(exchange, SC_METHOD_NOT_ALLOWED, "use GET or POST\n");
+		return null;
+	}
+
+	/**
+	 * @param rawQuery URL encoded query string, may be null
+	 * @param name
+	 * @return decoded value of the first parameter of that name, null if
+	 * 		there is none
+	 * @throws IllegalArgumentException if the query string has a malformed
+	 * 		escape
+	 */
+	private static String parameter(String rawQuery, String name) throws IOException {
+
+		if ( rawQuery == null )
+			return null;
+
+		for ( String pair : rawQuery.split("&") ) {
+			int eq = pair.indexOf('=');
+			String key = eq < 0 ? pair : pair.substring(0, eq);
+			if ( name.equals(URLDecoder.decode(key, "UTF-8")) )
+				return eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), "UTF-8");
+		}
+
+		return null;
+	}
+
+	private static String millis(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+	}
+
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+
+		byte[] bytes = body.getBytes("UTF-8");
+
+		exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+		exchange.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+
+		OutputStream out = exchange.getResponseBody();
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+			exchange.close();
+		}
+	}
+
+}
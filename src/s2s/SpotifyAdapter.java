@@ -1,55 +1,96 @@
 package s2s;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.CompletionService;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-
-import org.apache.http.client.HttpClient;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.client.cache.CacheConfig;
-import org.apache.http.impl.client.cache.CachingHttpClient;
-import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
 
 /**
  * Class responsible for communication with the Spotify database.
- * Based on Apache's caching HTTP client. HTTP requests are executed
- * in parallel.
+ * Queries are first answered by the local catalog source (if there is one),
+ * only misses are sent to the remote source. Remote requests are executed
+ * in parallel, by a pool of blocking workers or, when the remote source is
+ * an AsyncTrackSource, without blocking any thread.
+ * Optionally a request which takes unusually long is hedged: a duplicate
+ * is sent and the first answer is taken.
+ * A circuit breaker stops the remote requests while the remote side keeps
+ * failing, the sentences are split by the known titles meanwhile.
+ * When a track sink is set, found tracks are passed to it, remote ones as
+ * they are parsed, instead of being returned by fetchTracks.
  * @author rzvoncek
  *
  */
 
 public class SpotifyAdapter {
 
-	private static final int CACHE_ENTRY_MAX_CNT = 500;
-	private static final int CACHE_ENTRY_MAX_SIZE = 3145728; // 3 MB
+	/** Spotify allows 10 requests per second */
+	public static final double REQUESTS_PER_SECOND = 10;
+
+	/** recent request latencies the hedging delay is estimated from */
+	private static final int LATENCY_WINDOW = 1000;
+	private static final int LATENCY_MIN_SAMPLES = 20;
+
+	/** the breaker trips when half of the last 20 requests failed or 80% were slow */
+	private static final int BREAKER_WINDOW = 20;
+	private static final int BREAKER_MIN_CALLS = 10;
+	private static final double BREAKER_FAILURE_RATE = 0.5;
+	private static final double BREAKER_SLOW_RATE = 0.8;
+	private static final long BREAKER_SLOW_CALL = TimeUnit.SECONDS.toNanos(5);
+	private static final long BREAKER_BASE_OPEN = 1000; // ms
+	private static final long BREAKER_MAX_OPEN = 60000; // ms
 	
-	private CacheConfig cacheConfig;
-	private HttpClient httpClient;
-	private long tLastRequest;
+	private TrackSource localSource;
+	private TrackSource remoteSource;
+	private RateLimiter rateLimiter;
+	private QueryCache queryCache;
+	private TrackSink trackSink;
+	private TrackSource hedgeSource;
+	private double hedgePercentile;
+	private LatencyTracker latencyTracker;
+	private AtomicLong hedgeCount;
+	private AtomicLong hedgeWinCount;
+	private CircuitBreaker circuitBreaker;
 	
-	ExecutorService queryExecExecutor;
-	CompletionService<List<Track>> queryExecExecutorService;
+	ThreadPoolExecutor queryExecExecutor;
+	private ConcurrentHashMap<String,InFlightQuery> inFlight;
 	private final int QUERY_EXEC_WORKER_CNT = 
 			Runtime.getRuntime().availableProcessors()*2;
 	
 	public SpotifyAdapter() {
-		cacheConfig = new CacheConfig();
-		cacheConfig.setMaxCacheEntries(CACHE_ENTRY_MAX_CNT);
-		cacheConfig.setMaxObjectSize(CACHE_ENTRY_MAX_SIZE);
+		this(null, new HttpTrackSource(), new RateLimiter(REQUESTS_PER_SECOND, 1));
+	}
 
-		httpClient = new CachingHttpClient(
-				new DefaultHttpClient(new PoolingClientConnectionManager()),
-				cacheConfig);
-		
-		queryExecExecutor = Executors.newFixedThreadPool(QUERY_EXEC_WORKER_CNT);
-		queryExecExecutorService = 
-				new ExecutorCompletionService<List<Track>>(queryExecExecutor);
-		
-		tLastRequest = 0;
+	/**
+	 * @param localSource source asked first, may be null
+	 * @param remoteSource source asked on local misses, may be null
+	 * @param rateLimiter limits the rate of remote requests
+	 */
+	public SpotifyAdapter(TrackSource localSource, TrackSource remoteSource,
+			RateLimiter rateLimiter) {
+		this.localSource = localSource;
+		this.remoteSource = remoteSource;
+		this.rateLimiter = rateLimiter;
+
+		queryExecExecutor = new ThreadPoolExecutor(QUERY_EXEC_WORKER_CNT, QUERY_EXEC_WORKER_CNT,
+				0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+		inFlight = new ConcurrentHashMap<String,InFlightQuery>();
+		latencyTracker = new LatencyTracker(LATENCY_WINDOW, LATENCY_MIN_SAMPLES);
+		hedgeCount = new AtomicLong();
+		hedgeWinCount = new AtomicLong();
+		circuitBreaker = createCircuitBreaker(BREAKER_SLOW_CALL);
 	}
 
 	/**
@@ -58,88 +99,549 @@ public class SpotifyAdapter {
 	 * 
 	 * Ensures there will be no queries for words as 'I','we', etc.
 	 * 
+	 * Safe to call from several threads, every call gathers the results of
+	 * its own queries only. Identical queries running at the same time are
+	 * sent only once and their result is shared.
+	 * 
 	 * @param words
 	 * @return
 	 */
 	public List<Track> fetchTracks (String setnece, String[] words) {
+		return fetchTracks(setnece, words, null);
+	}
+
+	/**
+	 * Runs queries for the words not covered by known titles, see QueryPlanner.
+	 * @param setnece
+	 * @param words
+	 * @param covered covered[i] is true if words[i] is part of a known title,
+	 * 		null to query all words
+	 * @return found tracks, none if there is a track sink
+	 */
+	public List<Track> fetchTracks (String setnece, String[] words, boolean[] covered) {
+		return fetchTracks(setnece, words, covered, null);
+	}
+
+	/**
+	 * Runs queries for the words not covered by known titles, see QueryPlanner.
+	 * The completion check is asked once the local results are known and after
+	 * every finished remote query, the call returns as soon as it is satisfied.
+	 * Remote queries nobody else waits for are cancelled then.
+	 * @param setnece
+	 * @param words
+	 * @param covered covered[i] is true if words[i] is part of a known title,
+	 * 		null to query all words
+	 * @param check allows to return before all queries finished, may be null
+	 * @return found tracks, none if there is a track sink
+	 */
+	public List<Track> fetchTracks (String setnece, String[] words, boolean[] covered,
+			CompletionCheck check) {
+		return fetchTracks(setnece, words, covered, check, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Runs queries for the words not covered by known titles, see QueryPlanner.
+	 * Returns when the completion check is satisfied or the time runs out at
+	 * the latest, queries nobody else waits for are cancelled then.
+	 * @param setnece
+	 * @param words
+	 * @param covered covered[i] is true if words[i] is part of a known title,
+	 * 		null to query all words
+	 * @param check allows to return before all queries finished, may be null
+	 * @param timeoutNanos time to wait for the remote queries, Long.MAX_VALUE
+	 * 		to wait as long as they take
+	 * @return found tracks, none if there is a track sink; partial if
+	 * 		some queries failed, did not finish in time or were refused by
+	 * 		the circuit breaker
+	 */
+	public TrackList fetchTracks (String setnece, String[] words, boolean[] covered,
+			CompletionCheck check, long timeoutNanos) {
 		
-		List<Track> result = new ArrayList<Track>();
-		int jobsScheduled = 0;
-		String prevWord = "";
-		String query;
-		
+		long start = System.nanoTime();
+		TrackList result = new TrackList();
+		Map<CompletableFuture<List<Track>>,String> pending = 
+				new LinkedHashMap<CompletableFuture<List<Track>>,String>();
 		
-		for ( String w : words ) {
+		for ( String query : new QueryPlanner(queryCache).plan(setnece, words, covered) )
+			submitQuery(query, result, pending);
 
-			// the word is too short, save it for the next iteration
-			if ( w.length() < 3 ) {
-				prevWord = w;
-				continue;
-			}
-
-			else {
-				// there is a word saved from previous iteration
-				if ( prevWord.length() != 0 ) {
-					query = prevWord.concat(" ").concat(w);
-				} else { 
-					query = w;
+		// completed futures are queued in the order they complete
+		final BlockingQueue<CompletableFuture<List<Track>>> completed = 
+				new LinkedBlockingQueue<CompletableFuture<List<Track>>>();
+		for ( final CompletableFuture<List<Track>> f : pending.keySet() ) {
+			f.whenComplete(new BiConsumer<List<Track>,Throwable>() {
+				@Override
+				public void accept(List<Track> tracks, Throwable error) {
+					completed.add(f);
 				}
-			}
-			
-			// instantiate and submit a new query execution worker
-			ParallelQueryExec worker = new ParallelQueryExec(this,httpClient,query);
-			queryExecExecutorService.submit(worker);
-			jobsScheduled++;
-			prevWord = "";
-
+			});
 		}
-
-		// ask for the whole sentence as well
-		ParallelQueryExec worker = new ParallelQueryExec(this,httpClient,setnece);
-		queryExecExecutorService.submit(worker);
-		jobsScheduled++;
-
 		
 		//  gather the results
-		for (int i=0;i<jobsScheduled;i++) {
+		int remaining = pending.size();
+		while ( remaining > 0 ) {
+
+			if ( check != null && check.isComplete() )
+				break;
+
+			CompletableFuture<List<Track>> f;
+			try {
+				if ( timeoutNanos == Long.MAX_VALUE )
+					f = completed.take();
+				else
+					f = completed.poll(timeoutNanos - (System.nanoTime() - start),
+							TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				System.err.println("ERROR: " + e.getMessage());
+				result.setPartial(true);
+				break;
+			}
+			if ( f == null ) {
+				// out of time, go with what is known so far
+				result.setPartial(true);
+				break;
+			}
+			pending.remove(f);
+			remaining--;
+
 			List<Track> partialResult;
 			try {
 				// each worker will return a List of tracks it pulled
-				partialResult = queryExecExecutorService.take().get();
+				partialResult = f.get();
 			} catch (InterruptedException e) {
 				System.err.println("ERROR: " + e.getMessage());
 				continue;
+			} catch (CancellationException e) {
+				result.setPartial(true);
+				continue;
 			} catch (ExecutionException e) {
 				System.err.println("ERROR: " + e.getMessage());
+				result.setPartial(true);
 				continue;
 			}
-			if ( partialResult != null ) {
+			if ( partialResult == null ) {
+				// the query failed
+				result.setPartial(true);
+			} else if ( trackSink == null ) {
 				// merge the partial List with the global result 
 				result.addAll(partialResult);
 			}
 		}
+
+		// queries still running are not needed by this call any more,
+		// those released by all callers are cancelled
+		for ( Map.Entry<CompletableFuture<List<Track>>,String> e : pending.entrySet() )
+			release(e.getValue(), e.getKey());
 		
+		Metrics.FETCH.recordSince(start);
 		return result;
 	}
 
 	/**
-	 * Allows workers maintain the query rate restriction in a thread-safe way.
+	 * Answers the query from the local source, or joins the remote query
+	 * when the local source knows no matching track.
+	 * @param query
+	 * @param result receives the locally found tracks, is partial if the
+	 * 		remote query is refused
+	 * @param pending receives the future of the remote query and its key
+	 */
+	private void submitQuery(String query, TrackList result,
+			Map<CompletableFuture<List<Track>>,String> pending) {
+
+		if ( localSource != null ) {
+			try {
+				List<Track> localResult = localSource.search(query);
+				if ( !localResult.isEmpty() ) {
+					if ( trackSink != null ) {
+						for ( Track t : localResult )
+							trackSink.accept(t);
+					} else {
+						result.addAll(localResult);
+					}
+					return;
+				}
+			} catch (IOException e) {
+				System.err.println("ERROR: " + e.getMessage());
+			}
+		}
+
+		if ( remoteSource == null )
+			return;
+
+		CompletableFuture<List<Track>> future = remoteQuery(query);
+		if ( future == null ) {
+			// the remote side is failing, go with what is known
+			result.setPartial(true);
+			return;
+		}
+		pending.put(future, normalizeQuery(query));
+	}
+
+	/**
+	 * Returns the future result of a remote query. Cached results are returned
+	 * right away. Concurrent callers asking for the same (normalized) query
+	 * share one outstanding request, a new request is only sent once the
+	 * previous one completed. Every caller of a request not completed yet
+	 * has to release it.
+	 * @param query
+	 * @return future list of tracks, null on failure; null instead of the
+	 * 		future if the circuit breaker refuses to send a new request
+	 */
+	CompletableFuture<List<Track>> remoteQuery(String query) {
+
+		final String key = normalizeQuery(query);
+
+		if ( queryCache != null ) {
+			List<Track> cached = queryCache.get(key);
+			if ( cached != null ) {
+				if ( trackSink != null ) {
+					for ( Track t : cached )
+						trackSink.accept(t);
+				}
+				return CompletableFuture.completedFuture(cached);
+			}
+		}
+
+		final boolean[] created = new boolean[1];
+		final InFlightQuery shared = inFlight.compute(key,
+				new BiFunction<String,InFlightQuery,InFlightQuery>() {
+			@Override
+			public InFlightQuery apply(String k, InFlightQuery current) {
+				if ( current == null ) {
+					if ( !circuitBreaker.allowRequest() )
+						return null;
+					current = new InFlightQuery();
+					created[0] = true;
+				}
+				current.waiters++;
+				return current;
+			}
+		});
+
+		if ( shared == null )
+			return null;
+		if ( !created[0] )
+			return shared.future;
+
+		execute(key, shared.future).whenComplete(new BiConsumer<List<Track>,Throwable>() {
+			@Override
+			public void accept(List<Track> tracks, Throwable error) {
+				// failed queries are not cached
+				if ( tracks != null && queryCache != null )
+					queryCache.put(key, tracks);
+				inFlight.remove(key, shared);
+				if ( error != null )
+					shared.future.completeExceptionally(error);
+				else
+					shared.future.complete(tracks);
+			}
+		});
+		
+		return shared.future;
+	}
+
+	/**
+	 * Tells the caller of remoteQuery does not wait for the result any more.
+	 * A request released by all its callers is cancelled, unless it completed.
+	 * @param key normalized query
+	 * @param future the future returned by remoteQuery
+	 */
+	void release(String key, final CompletableFuture<List<Track>> future) {
+
+		if ( future.isDone() )
+			return;
+
+		final InFlightQuery[] abandoned = new InFlightQuery[1];
+		inFlight.computeIfPresent(key, new BiFunction<String,InFlightQuery,InFlightQuery>() {
+			@Override
+			public InFlightQuery apply(String k, InFlightQuery current) {
+				if ( current.future != future || --current.waiters > 0 )
+					return current;
+				abandoned[0] = current;
+				return null;
+			}
+		});
+
+		// workers skip cancelled queries they did not start yet
+		if ( abandoned[0] != null )
+			abandoned[0].future.cancel(false);
+	}
+
+	/**
+	 * Sends the query to the remote source. With hedging on, a duplicate
+	 * is sent to the hedge source when the first request takes longer than
+	 * the chosen percentile of recent latencies; the first result wins.
+	 * Like the latencies, the time is measured from the moment the request
+	 * got its rate limiter permit and was sent, so queueing and throttling
+	 * don't cause duplicates.
+	 * @param query
+	 * @param owner future of the shared request, the query is skipped once
+	 * 		it is cancelled
+	 * @return future list of tracks, null on failure
+	 */
+	private CompletableFuture<List<Track>> execute(final String query, final Future<?> owner) {
+
+		if ( hedgeSource == null )
+			return execute(remoteSource, query, owner, null);
+
+		final long delay = latencyTracker.percentile(hedgePercentile);
+		if ( delay < 0 )
+			return execute(remoteSource, query, owner, null); // no idea what is slow yet
+
+		final CompletableFuture<Void> sent = new CompletableFuture<Void>();
+		CompletableFuture<List<Track>> primary = execute(remoteSource, query, owner, sent);
+
+		final CompletableFuture<List<Track>> first = new CompletableFuture<List<Track>>();
+		final AtomicInteger outstanding = new AtomicInteger(1);
+
+		primary.whenComplete(new BiConsumer<List<Track>,Throwable>() {
+			@Override
+			public void accept(List<Track> tracks, Throwable error) {
+				if ( tracks != null )
+					first.complete(tracks);
+				else if ( outstanding.decrementAndGet() == 0 )
+					first.complete(null);
+			}
+		});
+
+		final Runnable hedge = new Runnable() {
+			@Override
+			public void run() {
+
+				if ( first.isDone() || owner.isCancelled() || !circuitBreaker.allowRequest() )
+					return;
+
+				outstanding.incrementAndGet();
+				hedgeCount.incrementAndGet();
+
+				// the hedge takes its own permit from the rate limiter
+				execute(hedgeSource, query, owner, null).whenComplete(new BiConsumer<List<Track>,Throwable>() {
+					@Override
+					public void accept(List<Track> tracks, Throwable error) {
+						if ( tracks != null ) {
+							if ( first.complete(tracks) )
+								hedgeWinCount.incrementAndGet();
+						} else if ( outstanding.decrementAndGet() == 0 ) {
+							first.complete(null);
+						}
+					}
+				});
+			}
+		};
+
+		sent.thenRun(new Runnable() {
+			@Override
+			public void run() {
+				CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS).execute(hedge);
+			}
+		});
+
+		return first;
+	}
+
+	/**
+	 * Sends the query to the given source, either through the non-blocking
+	 * engine or by a blocking worker from the pool.
+	 * @param source
+	 * @param query
+	 * @param owner future of the shared request, the query is skipped once
+	 * 		it is cancelled
+	 * @param sent completed once the first request got its permit and is
+	 * 		sent, may be null
+	 * @return future list of tracks, null on failure
+	 */
+	private CompletableFuture<List<Track>> execute(TrackSource source, String query,
+			Future<?> owner, CompletableFuture<Void> sent) {
+
+		if ( source instanceof AsyncTrackSource )
+			return new AsyncQueryExec(this,(AsyncTrackSource) source,query,owner,sent).execute();
+
+		// instantiate and submit a new query execution worker
+		final ParallelQueryExec worker = new ParallelQueryExec(this,source,query,owner,sent);
+		final CompletableFuture<List<Track>> result = new CompletableFuture<List<Track>>();
+		queryExecExecutor.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					result.complete(worker.call());
+				} catch (Exception e) {
+					result.completeExceptionally(e);
+				}
+			}
+		});
+		
+		return result;
+	}
+
+	/**
+	 * Normalizes the query so equal queries share one request: lower case,
+	 * single spaces, no leading or trailing space.
+	 * @param query
 	 * @return
 	 */
-	synchronized public long getLastRequestTime() {
-		return this.tLastRequest;
+	static String normalizeQuery(String query) {
+		return query.trim().replaceAll("\\s+", " ").toLowerCase();
+	}
+
+	/**
+	 * Returns the sink workers pass the parsed remote tracks to. The tracks
+	 * are collected as well when the query cache needs them.
+	 * @param collected receives the tracks to cache
+	 * @return sink for the tracks, null if the workers should return lists
+	 */
+	TrackSink ingestSink(final List<Track> collected) {
+
+		if ( trackSink == null || queryCache == null )
+			return trackSink;
+
+		final TrackSink target = trackSink;
+		return new TrackSink() {
+			@Override
+			public void accept(Track t) {
+				collected.add(t);
+				target.accept(t);
+			}
+		};
+	}
+
+	/**
+	 * @param trackSink receives the found tracks, remote ones as they are parsed, null
+	 * 		to return them from fetchTracks
+	 */
+	public void setTrackSink(TrackSink trackSink) {
+		this.trackSink = trackSink;
+	}
+
+	/**
+	 * Enables hedged requests.
+	 * @param hedgeSource source the duplicate requests are sent to, may be
+	 * 		the remote source itself; null disables hedging
+	 * @param percentile percentile of recent latencies after which a request
+	 * 		not answered yet is duplicated
+	 */
+	public void setHedging(TrackSource hedgeSource, double percentile) {
+		this.hedgeSource = hedgeSource;
+		this.hedgePercentile = percentile;
+	}
+
+	/**
+	 * @return number of duplicate requests sent
+	 */
+	public long getHedgeCount() {
+		return hedgeCount.get();
+	}
+
+	/**
+	 * @return number of duplicate requests answered before the original one
+	 */
+	public long getHedgeWinCount() {
+		return hedgeWinCount.get();
+	}
+
+	/**
+	 * Workers report the latency of every successful remote request.
+	 * @param nanos
+	 */
+	void recordSuccess(long nanos) {
+		latencyTracker.record(nanos);
+		circuitBreaker.recordSuccess(nanos);
+	}
+
+	/**
+	 * Workers report every failed remote request, except those refused
+	 * because of the rate limit.
+	 */
+	void recordFailure() {
+		circuitBreaker.recordFailure();
+	}
+
+	/**
+	 * Replaces the default circuit breaker by one treating requests taking
+	 * the given time as slow.
+	 * @param slowCallNanos
+	 */
+	public void setSlowCall(long slowCallNanos) {
+		circuitBreaker = createCircuitBreaker(slowCallNanos);
+	}
+
+	public CircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	private static CircuitBreaker createCircuitBreaker(long slowCallNanos) {
+		return new CircuitBreaker(BREAKER_WINDOW, BREAKER_MIN_CALLS, BREAKER_FAILURE_RATE,
+				BREAKER_SLOW_RATE, slowCallNanos, BREAKER_BASE_OPEN, BREAKER_MAX_OPEN);
 	}
 
 	/**
 	 * Allows workers maintain the query rate restriction in a thread-safe way.
 	 * @return
 	 */
-	synchronized public void setLastRequestTime(long tNow) {
-		this.tLastRequest = tNow;
+	public RateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+	
+	/**
+	 * @param queryCache cache of remote query results, null disables caching
+	 */
+	public void setQueryCache(QueryCache queryCache) {
+		this.queryCache = queryCache;
+	}
+
+	public QueryCache getQueryCache() {
+		return queryCache;
+	}
+	
+	/**
+	 * @return number of queries waiting for a free worker
+	 */
+	public int getQueueDepth() {
+		return queryExecExecutor.getQueue().size();
+	}
+
+	/**
+	 * @return number of remote queries sent or waiting to be sent
+	 */
+	public int getInFlightCount() {
+		return inFlight.size();
 	}
 	
 	public void shutDown() {
 		queryExecExecutor.shutdown();
+		if ( queryCache != null ) {
+			try {
+				queryCache.save();
+			} catch (IOException e) {
+				System.err.println("ERROR: " + e.getMessage());
+			}
+		}
+		if ( localSource != null )
+			localSource.shutDown();
+		if ( remoteSource != null )
+			remoteSource.shutDown();
+		if ( hedgeSource != null && hedgeSource != remoteSource )
+			hedgeSource.shutDown();
 	}
 	
+	/**
+	 * Decides whether fetchTracks may return before all its queries finished.
+	 */
+	public interface CompletionCheck {
+		
+		/**
+		 * @return true if the remaining query results are not needed
+		 */
+		public boolean isComplete();
+	}
+
+	/**
+	 * A remote request shared by all callers asking for the same query.
+	 */
+	private static class InFlightQuery {
+
+		final CompletableFuture<List<Track>> future = new CompletableFuture<List<Track>>();
+		/** callers waiting for the result, guarded by the inFlight map */
+		int waiters;
+	}
+
 }
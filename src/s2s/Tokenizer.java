@@ -0,0 +1,195 @@
+package s2s;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Single pass tokenizer normalizing sentences and track titles.
+ *
+ * Produces the same words as InputReader's original sanitizing (lower case,
+ * ',' and ':' removed, '`' and the typographic apostrophe turned to '\'')
+ * followed by splitting by single spaces, without the regular expressions
+ * and intermediate strings. The normalized text is kept in a reusable
+ * buffer and the words are spans of it, so they can be looked up in the
+ * dictionary without creating strings.
+ *
+ * A tokenizer is not thread-safe, get() returns one per thread.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class Tokenizer {
+
+	private static final ThreadLocal<Tokenizer> LOCAL = new ThreadLocal<Tokenizer>() {
+		@Override
+		protected Tokenizer initialValue() {
+			return new Tokenizer();
+		}
+	};
+
+	/** locales whose lower case differs from the per-character one */
+	private static final boolean SPECIAL_LOCALE;
+	static {
+		String language = Locale.getDefault().getLanguage();
+		SPECIAL_LOCALE = "tr".equals(language) || "az".equals(language) || "lt".equals(language);
+	}
+
+	private char[] chars = new char[256];
+	private int length;
+	private int[] starts = new int[32];
+	private int[] ends = new int[32];
+	private int count;
+	private boolean changed;
+
+	/**
+	 * @return the tokenizer of the current thread
+	 */
+	public static Tokenizer get() {
+		return LOCAL.get();
+	}
+
+	/**
+	 * Same as InputReader.sanitize(s).split(" ").
+	 * @param s
+	 * @return words
+	 */
+	public static String[] split(String s) {
+		Tokenizer tokenizer = get();
+		tokenizer.tokenize(s);
+		return tokenizer.words();
+	}
+
+	/**
+	 * @param s
+	 * @return the normalized text, s itself if it is normalized already
+	 */
+	public static String normalize(String s) {
+		Tokenizer tokenizer = get();
+		tokenizer.tokenize(s);
+		return tokenizer.changed ? new String(tokenizer.chars, 0, tokenizer.length) : s;
+	}
+
+	/**
+	 * @param c
+	 * @return true if the lower case of the character depends on its context
+	 * 		or the default locale, text containing it has to be lower-cased by
+	 * 		String.toLowerCase instead of char by char
+	 */
+	static boolean isContextual(char c) {
+		return SPECIAL_LOCALE || Character.isSurrogate(c) || c == '\u0130' || c == '\u03a3';
+	}
+
+	/**
+	 * Normalizes the text into the buffer and finds its words.
+	 * @param s
+	 * @return number of words
+	 */
+	public int tokenize(String s) {
+
+		if ( SPECIAL_LOCALE )
+			return tokenize(s.toLowerCase(), true);
+
+		return tokenize(s, false);
+	}
+
+	private int tokenize(String s, boolean lowered) {
+
+		int n = s.length();
+		if ( chars.length < n )
+			chars = new char[Math.max(n, chars.length * 2)];
+
+		length = 0;
+		count = 0;
+		changed = lowered;
+		int start = 0;
+
+		for ( int i=0;i<n;i++ ) {
+
+			char c = s.charAt(i);
+			char d = c;
+
+			if ( c < 0x80 ) {
+				if ( c >= 'A' && c <= 'Z' )
+					d = (char) (c + ('a' - 'A'));
+				else if ( c == '`' )
+					d = '\'';
+				else if ( c == ',' || c == ':' ) {
+					changed = true;
+					continue;
+				}
+			} else if ( c == '\u2019' ) {
+				d = '\'';
+			} else if ( !lowered ) {
+				if ( isContextual(c) )
+					return tokenize(s.toLowerCase(), true);
+				d = Character.toLowerCase(c);
+			}
+
+			if ( d != c )
+				changed = true;
+
+			if ( d == ' ' ) {
+				addToken(start, length);
+				start = length + 1;
+			}
+			chars[length++] = d;
+		}
+		addToken(start, length);
+
+		// String.split drops trailing empty words, but keeps the only one
+		while ( count > 0 && starts[count-1] == ends[count-1] )
+			count--;
+		if ( length == 0 )
+			count = 1;
+
+		return count;
+	}
+
+	private void addToken(int start, int end) {
+		if ( count == starts.length ) {
+			starts = Arrays.copyOf(starts, count * 2);
+			ends = Arrays.copyOf(ends, count * 2);
+		}
+		starts[count] = start;
+		ends[count] = end;
+		count++;
+	}
+
+	/**
+	 * @return number of words found by the last tokenize
+	 */
+	public int count() {
+		return count;
+	}
+
+	/**
+	 * @return buffer holding the normalized text, valid until the next tokenize
+	 */
+	public char[] chars() {
+		return chars;
+	}
+
+	public int start(int word) {
+		return starts[word];
+	}
+
+	public int length(int word) {
+		return ends[word] - starts[word];
+	}
+
+	public String word(int word) {
+		return new String(chars, starts[word], ends[word] - starts[word]);
+	}
+
+	/**
+	 * @return the words found by the last tokenize
+	 */
+	public String[] words() {
+		String[] words = new String[count];
+		for ( int i=0;i<count;i++ )
+			words[i] = word(i);
+		return words;
+	}
+
+}
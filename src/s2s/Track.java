@@ -10,7 +10,7 @@ public class Track {
 
 	private String url;
 	private String name;
-	
+
 	public Track(String name, String url) {
 		this.url = url;
 		this.name = name;
@@ -31,7 +31,26 @@ public class Track {
 	public void setName(String name) {
 		this.name = name;
 	}
-	
-	
-	
+
+	/**
+	 * Lower-cases a raw track title and parses away possible ' - feat smt'
+	 * and '(something...' suffixes.
+	 * @param title raw title as received from the source
+	 * @return cleaned title
+	 */
+	public static String cleanTitle(String title) {
+
+		title = title.toLowerCase();
+
+		int cut = title.indexOf(" -");
+		if ( cut != -1 )
+			title = title.substring(0, cut);
+
+		cut = title.indexOf("(");
+		if ( cut != -1 )
+			title = title.substring(0, cut);
+
+		return title;
+	}
+
 }
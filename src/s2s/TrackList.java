@@ -0,0 +1,39 @@
+package s2s;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * List of tracks which may be incomplete, because the time given to
+ * produce it ran out before all remote queries finished.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class TrackList extends ArrayList<Track> {
+
+	private static final long serialVersionUID = 1L;
+
+	private boolean partial;
+
+	public TrackList() {
+		super();
+	}
+
+	public TrackList(Collection<Track> tracks) {
+		super(tracks);
+	}
+
+	/**
+	 * @return true if some remote queries did not finish in time
+	 */
+	public boolean isPartial() {
+		return partial;
+	}
+
+	public void setPartial(boolean partial) {
+		this.partial = partial;
+	}
+
+}
@@ -0,0 +1,19 @@
+package s2s;
+
+/**
+ * Receives tracks one by one as they are parsed, e.g. to insert them into
+ * the title tree without building intermediate track lists.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public interface TrackSink {
+
+	/**
+	 * May be called concurrently by several query workers.
+	 * @param t
+	 */
+	public void accept(Track t);
+
+}
@@ -0,0 +1,42 @@
+package s2s;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Source of tracks matching a search query. Implemented by the remote
+ * Spotify search (HttpTrackSource) and by the local catalog engine
+ * (CatalogTrackSource).
+ *
+ * @author rzvoncek
+ *
+ */
+
+public interface TrackSource {
+
+	/**
+	 * Searches for tracks whose title matches the given query.
+	 * @param query
+	 * @return list of found tracks, empty if there are none
+	 * @throws IOException if the source could not be queried
+	 */
+	public List<Track> search(String query) throws IOException;
+
+	/**
+	 * Searches for tracks whose title matches the given query and passes
+	 * them to the sink. Sources able to stream their results override this.
+	 * @param query
+	 * @param sink receives the found tracks
+	 * @throws IOException if the source could not be queried
+	 */
+	public default void search(String query, TrackSink sink) throws IOException {
+		for ( Track t : search(query) )
+			sink.accept(t);
+	}
+
+	/**
+	 * Releases resources held by the source.
+	 */
+	public void shutDown();
+
+}
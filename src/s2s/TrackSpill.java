@@ -0,0 +1,195 @@
+package s2s;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Scratch file keeping the tracks of branches evicted from the title tree,
+ * so they can be loaded again when their first word is looked up or gets a
+ * new title.
+ *
+ * Records are appended and addressed by the word ID of the branch. A taken
+ * record leaves a hole; once the holes take more than half of the file the
+ * live records are moved to its start. The file is truncated when opened and
+ * deleted on exit.
+ *
+ * Record layout: int trackCnt, then per track the title and the URI as
+ * modified UTF-8 (DataOutput.writeUTF).
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class TrackSpill {
+
+	/** holes below this size are not worth compacting */
+	private static final long MIN_COMPACT_BYTES = 1 << 20;
+
+	private final RandomAccessFile file;
+	private final Map<Integer,long[]> records;
+	private long end;
+	private long live;
+
+	/**
+	 * @param f created or truncated
+	 * @throws IOException
+	 */
+	public TrackSpill(File f) throws IOException {
+		file = new RandomAccessFile(f, "rw");
+		file.setLength(0);
+		f.deleteOnExit();
+		records = new ConcurrentHashMap<Integer,long[]>();
+	}
+
+	/**
+	 * @param word word ID of a branch
+	 * @return true if the branch is spilled
+	 */
+	public boolean contains(int word) {
+		return !records.isEmpty() && records.containsKey(word);
+	}
+
+	/**
+	 * Spills the tracks of a branch, together with those spilled for the
+	 * same word before.
+	 * @param word word ID of the branch
+	 * @param tracks
+	 * @throws IOException
+	 */
+	public synchronized void put(int word, List<Track> tracks) throws IOException {
+
+		List<Track> previous = take(word);
+		if ( previous != null ) {
+			tracks = new ArrayList<Track>(tracks);
+			tracks.addAll(previous);
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(tracks.size());
+		for ( Track t : tracks ) {
+			out.writeUTF(t.getName());
+			out.writeUTF(t.getUrl());
+		}
+		out.flush();
+
+		if ( end - live > MIN_COMPACT_BYTES && end - live > live )
+			compact();
+
+		file.seek(end);
+		file.write(bytes.toByteArray());
+		records.put(word, new long[] { end, bytes.size() });
+		end += bytes.size();
+		live += bytes.size();
+	}
+
+	/**
+	 * Moves the live records to the start of the file, in the order they
+	 * are stored, so each one moves towards the start and none overwrites
+	 * a record not moved yet.
+	 * @throws IOException
+	 */
+	private void compact() throws IOException {
+
+		List<long[]> sorted = new ArrayList<long[]>(records.values());
+		Collections.sort(sorted, new Comparator<long[]>() {
+			@Override
+			public int compare(long[] a, long[] b) {
+				return Long.compare(a[0], b[0]);
+			}
+		});
+
+		long position = 0;
+		byte[] buffer = new byte[0];
+		for ( long[] record : sorted ) {
+			int length = (int) record[1];
+			if ( buffer.length < length )
+				buffer = new byte[length];
+			file.seek(record[0]);
+			file.readFully(buffer, 0, length);
+			file.seek(position);
+			file.write(buffer, 0, length);
+			// the index holds the same array, readers are locked out
+			record[0] = position;
+			position += length;
+		}
+
+		end = position;
+		file.setLength(end);
+	}
+
+	/**
+	 * Removes the tracks of the branch from the spill.
+	 * @param word word ID of the branch
+	 * @return the tracks, null if the branch is not spilled
+	 * @throws IOException
+	 */
+	public synchronized List<Track> take(int word) throws IOException {
+
+		long[] record = records.remove(word);
+		if ( record == null )
+			return null;
+
+		live -= record[1];
+		return read(record);
+	}
+
+	/**
+	 * Passes all spilled tracks to the sink, the spill is not changed.
+	 * @param sink
+	 * @throws IOException
+	 */
+	public synchronized void forEachTrack(TrackSink sink) throws IOException {
+		for ( long[] record : records.values() ) {
+			for ( Track t : read(record) )
+				sink.accept(t);
+		}
+	}
+
+	private List<Track> read(long[] record) throws IOException {
+
+		byte[] bytes = new byte[(int) record[1]];
+		file.seek(record[0]);
+		file.readFully(bytes);
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+		int n = in.readInt();
+		List<Track> tracks = new ArrayList<Track>(n);
+		for ( int i=0;i<n;i++ ) {
+			String name = in.readUTF();
+			tracks.add(new Track(name, in.readUTF()));
+		}
+
+		return tracks;
+	}
+
+	/**
+	 * @return number of spilled branches
+	 */
+	public int size() {
+		return records.size();
+	}
+
+	/**
+	 * @return length of the file, including the holes
+	 */
+	public synchronized long getFileBytes() {
+		return end;
+	}
+
+	public synchronized void close() throws IOException {
+		file.close();
+	}
+
+}
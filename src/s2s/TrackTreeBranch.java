@@ -0,0 +1,129 @@
+package s2s;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Child of the root of the title tree, heading all titles starting with its
+ * word. Branches are the unit the tree is limited by: each keeps an estimate
+ * of the memory its subtree takes, when it was used last and when a title
+ * below it changed last.
+ *
+ * Changes are stamped with tree versions (see TrackTreeRoot.getVersion),
+ * uses with System.nanoTime, so lookups between two imports are still told
+ * apart. Once detached by an eviction a branch stops counting and refuses
+ * tracks, so the tree imports them again.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class TrackTreeBranch extends TrackTreeNode {
+
+	/** lookups closer than this to the last recorded one are not recorded */
+	private static final long TOUCH_NANOS = 100000;
+
+	/** estimated bytes of a node including its slot in the parent's table */
+	static final long NODE_BYTES = 64;
+	/** estimated bytes of a track and its two strings, without the characters */
+	static final long TRACK_BYTES = 112;
+
+	private final TrackTreeRoot tree;
+	private final AtomicLong stamp = new AtomicLong();
+	private volatile long lastAccess;
+
+	private long nodes;
+	private long tracks;
+	private long bytes;
+	private boolean detached;
+
+	/**
+	 * @param w word ID
+	 * @param tree the tree accounting for the branch
+	 */
+	public TrackTreeBranch(int w, TrackTreeRoot tree) {
+		super(w, null, 0);
+		this.tree = tree;
+		nodeAdded();
+	}
+
+	/**
+	 * Counts a new node of the subtree.
+	 */
+	synchronized void nodeAdded() {
+		if ( detached )
+			return;
+		nodes++;
+		bytes += NODE_BYTES;
+		tree.added(1, 0, NODE_BYTES);
+	}
+
+	/**
+	 * Counts a new track of the subtree.
+	 * @param t
+	 * @return false if the branch was evicted already
+	 */
+	synchronized boolean trackAdded(Track t) {
+		if ( detached )
+			return false;
+		long b = TRACK_BYTES + 2 * (t.getName().length() + t.getUrl().length());
+		tracks++;
+		bytes += b;
+		tree.added(0, 1, b);
+		return true;
+	}
+
+	/**
+	 * Stops counting the subtree.
+	 * @return nodes, tracks and bytes counted until now
+	 */
+	synchronized long[] detach() {
+		detached = true;
+		return new long[] { nodes, tracks, bytes };
+	}
+
+	/**
+	 * @return estimated bytes taken by the subtree
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return tree version of the last change below this branch
+	 */
+	public long getStamp() {
+		return stamp.get();
+	}
+
+	/**
+	 * Raises the stamp to the given version. Concurrent imports may finish
+	 * out of order, the stamp never goes back to an older version.
+	 * @param version tree version of a change below this branch
+	 */
+	public void updateStamp(long version) {
+		long current;
+		do {
+			current = stamp.get();
+			if ( current >= version )
+				return;
+		} while ( !stamp.compareAndSet(current, version) );
+	}
+
+	/**
+	 * @return System.nanoTime at the last lookup or change of the branch
+	 */
+	public long getLastAccess() {
+		return lastAccess;
+	}
+
+	/**
+	 * Marks the branch used. Written at most once in TOUCH_NANOS, so threads
+	 * looking up the same branch don't fight over its cache line.
+	 * @param now System.nanoTime
+	 */
+	public void touch(long now) {
+		if ( now - lastAccess > TOUCH_NANOS )
+			lastAccess = now;
+	}
+
+}
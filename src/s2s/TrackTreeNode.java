@@ -1,69 +1,243 @@
 package s2s;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Random;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Represents a node of the internal tree keeping the known song titles.
- * 
- * Node is named by a word, contains list of tracks which tile ends with 
- * node's word. Also contains pointers to nodes which share title prefix
- * with this node.   
- * 
+ *
+ * Node is named by a word ID (see WordDictionary), contains list of tracks
+ * which tile ends with node's word. Also contains pointers to nodes which
+ * share title prefix with this node.
+ *
+ * Children are kept in an open-addressing table keyed by the word ID, so
+ * no boxing or string hashing happens on lookup. Leaves have no table at all.
+ *
+ * Reads are lock-free, modifications lock the modified node only. A child is
+ * stored before its key is published by a volatile write, a grown table and
+ * a new track array are fully built before they replace the old ones.
+ *
  * @author rzvoncek
  *
  */
 
 public class TrackTreeNode {
 
-	private String word;
-	private List<Track> tracks;
-	private Map<String,TrackTreeNode> children;
+	private static final int EMPTY = -1;
+	private static final Track[] NO_TRACKS = new Track[0];
+
+	private final int word;
+	private volatile Track[] tracks;
+	private volatile Children children;
+	private int childCnt;
 	private final int depth;
-	private Random randomGenerator = new Random();
-	
-	public TrackTreeNode(String w, Track t, int d) {
+
+	public TrackTreeNode(int w, Track t, int d) {
 		word = w;
-		tracks = new ArrayList<Track>();
-		if ( t != null ) 
-			tracks.add(t);
-		children = new HashMap<String,TrackTreeNode>();
+		tracks = t == null ? NO_TRACKS : new Track[] { t };
 		this.depth = d;
 	}
 
-	public String getWord() {
+	public int getWord() {
 		return word;
 	}
 
-	public void setWord(String word) {
-		this.word = word;
+	/**
+	 * Returns the child for the given word, adding a new empty one if there
+	 * is none yet.
+	 * @param w
+	 * @return
+	 */
+	public TrackTreeNode getOrAddChild(int w) {
+		return getOrAddChild(w, null);
+	}
+
+	/**
+	 * @param w
+	 * @param branch counts the new child when one is added, may be null
+	 * @return existing or new child for the given word
+	 */
+	public TrackTreeNode getOrAddChild(int w, TrackTreeBranch branch) {
+
+		TrackTreeNode child = getChild(w);
+		if ( child != null )
+			return child;
+
+		synchronized (this) {
+
+			child = getChild(w);
+			if ( child != null )
+				return child;
+
+			Children c = children;
+			if ( c == null ) {
+				c = new Children(2);
+				children = c;
+			} else if ( (childCnt+1)*4 > c.keys.length()*3 ) {
+				c = c.grow();
+				children = c;
+			}
+
+			child = createChild(w);
+			int i = c.slot(w);
+			c.nodes.set(i, child);
+			c.keys.set(i, w);
+			childCnt++;
+			if ( branch != null )
+				branch.nodeAdded();
+			return child;
+		}
+	}
+
+	/**
+	 * @param w
+	 * @return new empty child for the given word
+	 */
+	protected TrackTreeNode createChild(int w) {
+		return new TrackTreeNode(w,null,depth+1);
+	}
+
+	/**
+	 * Removes the children of the given words. The table is rebuilt without
+	 * them, readers keep seeing the old table until the new one is complete.
+	 * @param words
+	 */
+	public synchronized void removeChildren(int[] words) {
+
+		Children c = children;
+		if ( c == null )
+			return;
+
+		int[] sorted = words.clone();
+		Arrays.sort(sorted);
+
+		Children rebuilt = new Children(c.keys.length());
+		int removed = 0;
+
+		for ( int j=0;j<c.keys.length();j++ ) {
+			int k = c.keys.get(j);
+			if ( k == EMPTY )
+				continue;
+			if ( Arrays.binarySearch(sorted, k) >= 0 ) {
+				removed++;
+				continue;
+			}
+			int i = rebuilt.slot(k);
+			rebuilt.nodes.set(i, c.nodes.get(j));
+			rebuilt.keys.set(i, k);
+		}
+
+		children = rebuilt;
+		childCnt -= removed;
+	}
+
+	/**
+	 * @param t
+	 * @return false if a track of the same URI is known already
+	 */
+	public synchronized boolean addTrack(Track t) {
+		for ( Track known : tracks ) {
+			if ( known.getUrl().equals(t.getUrl()) )
+				return false;
+		}
+		Track[] newTracks = Arrays.copyOf(tracks, tracks.length+1);
+		newTracks[tracks.length] = t;
+		tracks = newTracks;
+		return true;
 	}
 
-	public void addChild(String w, TrackTreeNode child) {
-		children.put(w, child);
+	public TrackTreeNode getChild(int word) {
+
+		Children c = children;
+		if ( c == null || word < 0 )
+			return null;
+
+		int i = c.slot(word);
+		return c.keys.get(i) == EMPTY ? null : c.nodes.get(i);
 	}
-	
-	public void addTrack(Track t) {
-		this.tracks.add(t);
+
+	/**
+	 * @return snapshot of the children
+	 */
+	public TrackTreeNode[] getChildren() {
+
+		Children c = children;
+		if ( c == null )
+			return new TrackTreeNode[0];
+
+		TrackTreeNode[] result = new TrackTreeNode[c.nodes.length()];
+		int n = 0;
+		for ( int i=0;i<result.length;i++ ) {
+			TrackTreeNode child = c.nodes.get(i);
+			if ( child != null )
+				result[n++] = child;
+		}
+		return Arrays.copyOf(result, n);
 	}
-	
-	public TrackTreeNode getChild(String word) {
-		return children.get(word);
+
+	public synchronized int getChildCount() {
+		return childCnt;
+	}
+
+	public Track[] getTracks() {
+		return tracks;
 	}
-	
+
 	public int getDepth() {
 		return this.depth;
 	}
-	
+
+
 	public Track getTrack() {
-		
-		if ( tracks.size() == 0 )
+
+		Track[] t = tracks;
+		if ( t.length == 0 )
 			return null;
-		
+
 		// return random track
-		return this.tracks.get(randomGenerator.nextInt(tracks.size()));
+		return t[ThreadLocalRandom.current().nextInt(t.length)];
+	}
+
+	/**
+	 * Open-addressing table of children. Replaced as a whole when it grows.
+	 */
+	private static class Children {
+
+		final AtomicIntegerArray keys;
+		final AtomicReferenceArray<TrackTreeNode> nodes;
+
+		Children(int capacity) {
+			keys = new AtomicIntegerArray(capacity);
+			for ( int i=0;i<capacity;i++ )
+				keys.set(i, EMPTY);
+			nodes = new AtomicReferenceArray<TrackTreeNode>(capacity);
+		}
+
+		/**
+		 * Finds the slot holding the key, or the empty slot where it belongs.
+		 */
+		int slot(int key) {
+			int mask = keys.length() - 1;
+			int i = WordDictionary.mix(key) & mask;
+			int k;
+			while ( (k = keys.get(i)) != EMPTY && k != key )
+				i = (i+1) & mask;
+			return i;
+		}
+
+		Children grow() {
+			Children c = new Children(keys.length()*2);
+			for ( int j=0;j<keys.length();j++ ) {
+				int k = keys.get(j);
+				if ( k == EMPTY )
+					continue;
+				int i = c.slot(k);
+				c.nodes.set(i, nodes.get(j));
+				c.keys.set(i, k);
+			}
+			return c;
+		}
 	}
 }
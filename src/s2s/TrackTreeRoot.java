@@ -1,35 +1,135 @@
 package s2s;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 
 /**
  * 
  * Root of the tree storing the known song tiles.
  * 
- * First words from all known song titles are stored in the trackTree map. Values
- * of the trackTree map are pointers to TrackTreeNodes containing next word of a
- * song title. Traversing the tree by looking up track title words eventually 
- * leads to a track of the given title, provided the track is known.
+ * First words from all known song titles are children of the root node. They
+ * are TrackTreeNodes containing next word of a song title. Traversing the tree
+ * by looking up track title words eventually leads to a track of the given
+ * title, provided the track is known.
+ * 
+ * Words are stored as IDs from the dictionary of the tree. Input words are
+ * translated to IDs once per sentence, unknown words never match.
+ * 
+ * The tree is safe for concurrent use: lookups don't lock and may run on any
+ * number of threads while tracks are being imported, imports only lock the
+ * nodes they modify.
+ * 
+ * The memory taken by the tree may be limited. Each child of the root heads
+ * a branch (TrackTreeBranch) remembering when it was used last; once the
+ * estimated size exceeds the budget, the least recently used branches are
+ * dropped, or moved to a spill file and loaded again when their first word
+ * is looked up or gets a new title.
  * 
  * @author rzvoncek
  *
  */
 
-public class TrackTreeRoot {
+public class TrackTreeRoot implements TrackSink {
 
 	
-	Map<String,TrackTreeNode> trackTree;
-	SpotifyAdapter spotify;
+	private TrackTreeNode root;
+	private WordDictionary dictionary;
+	private MappedTrackIndex index;
+	private LongAdder nodeCount;
+	private LongAdder trackCount;
+	private LongAdder usedBytes;
+	private AtomicLong version;
+	private long memoryBudget;
+	private TrackSpill spill;
+	private final Object evictLock = new Object();
+	private LongAdder evictions;
 
 	public TrackTreeRoot() {
-		trackTree = new HashMap<String,TrackTreeNode>();
-		spotify = new SpotifyAdapter();
+		this(null);
+	}
+
+	/**
+	 * @param index persisted tracks from previous runs, may be null
+	 */
+	public TrackTreeRoot(MappedTrackIndex index) {
+		root = new TrackTreeNode(WordDictionary.UNKNOWN,null,-1) {
+			@Override
+			protected TrackTreeNode createChild(int w) {
+				return new TrackTreeBranch(w, TrackTreeRoot.this);
+			}
+		};
+		dictionary = new WordDictionary();
+		this.index = index;
+		nodeCount = new LongAdder();
+		trackCount = new LongAdder();
+		usedBytes = new LongAdder();
+		version = new AtomicLong();
+		evictions = new LongAdder();
+	}
+
+	/**
+	 * @param bytes estimated size the nodes and tracks are kept under, the
+	 * 		dictionary not included, 0 for no limit
+	 */
+	public void setMemoryBudget(long bytes) {
+		memoryBudget = bytes;
+	}
+
+	/**
+	 * @param spill keeps evicted branches for reloading, null to drop them
+	 */
+	public void setSpill(TrackSpill spill) {
+		this.spill = spill;
+	}
+
+	public TrackSpill getSpill() {
+		return spill;
+	}
+	
+	public WordDictionary getDictionary() {
+		return dictionary;
+	}
+	
+	/**
+	 * Searches for the longest known song title prefix both in memory and
+	 * in the persisted index. The prefix covering more words by a track wins.
+	 * 
+	 * @param words
+	 * @return
+	 */
+	public SentencePrefix findLongestPrefix(String[] words) {
+		
+		long start = System.nanoTime();
+		SentencePrefix prefix = findLongestHeapPrefix(words, dictionary.lookup(words));
 		
+		if ( index != null ) {
+			SentencePrefix indexPrefix = index.findLongestPrefix(words);
+			if ( matchedLength(indexPrefix) > matchedLength(prefix) )
+				prefix = indexPrefix;
+		}
+		
+		Metrics.PREFIX.recordSince(start);
+		return prefix;
+	}
+	
+	/**
+	 * @return number of words the splitter will cut using the given prefix
+	 */
+	private static int matchedLength(SentencePrefix prefix) {
+		if ( prefix == null )
+			return 0;
+		if ( prefix.getLastTrack() != null )
+			return prefix.getPrefixLen();
+		if ( prefix.getLastKnownTrack() != null )
+			return prefix.getLastKnownLength();
+		return 0;
 	}
 	
 	/**
@@ -40,16 +140,15 @@ public class TrackTreeRoot {
 	 * in the tree.
 	 * 
 	 * @param words
+	 * @param ids word IDs of the words
 	 * @return
 	 */
-	public SentencePrefix findLongestPrefix(String[] words) {
+	private SentencePrefix findLongestHeapPrefix(String[] words, int[] ids) {
 	
-		List<String> nextWords = new ArrayList<String>(Arrays.asList(words));
 		TrackTreeNode ttn,ttnChild;
 		
-		StringBuffer prefix = new StringBuffer();
+		StringBuilder prefix = new StringBuilder();
 		int prefixLen = 0;
-		String nextWord;
 		
 		String lastPrefix = "";
 		int lastCnt = 0;
@@ -58,37 +157,33 @@ public class TrackTreeRoot {
 		if ( words.length == 0 )
 			return null;
 		
-		ttn = trackTree.get(nextWords.get(0));
+		ttn = branch(ids[0]);
 		
 		if ( ttn == null ) {
 			return null;
 		}
 		
-		nextWords.remove(0);
-
 		// word was found, remember it and check the children
-		prefix.append(ttn.getWord() + " ");
+		prefix.append(words[0]).append(' ');
 		prefixLen++;
 		
-		if ( nextWords.size() == 0 ) 
+		if ( words.length == 1 ) 
 			return new SentencePrefix(prefix.toString(),prefixLen,ttn.getTrack());
 		
 		do {
 
 			// save track for possible backtracking
-			if ( ttn.getTrack() != null ) {
+			Track t = ttn.getTrack();
+			if ( t != null ) {
 				lastPrefix = prefix.toString();
 				lastCnt = prefixLen;
-				lastTrack = ttn.getTrack();
+				lastTrack = t;
 			}
 			
-			nextWord = nextWords.get(0);
-			
 			// is there next matching word ?
-			ttnChild = ttn.getChild(nextWord);
+			ttnChild = ttn.getChild(ids[prefixLen]);
 			if ( ttnChild != null ) {
-				prefix.append(nextWord + " ");
-				nextWords.remove(0);
+				prefix.append(words[prefixLen]).append(' ');
 				prefixLen++;
 				ttn = ttnChild;
 				
@@ -96,7 +191,7 @@ public class TrackTreeRoot {
 				// can't continue the prefix
 				break;
 			}
-		} while ( nextWords.size() != 0 && words.length > prefixLen);
+		} while ( words.length > prefixLen );
 		
 		return new SentencePrefix(prefix.toString(),prefixLen,ttn.getTrack(),lastPrefix,lastCnt,lastTrack);
 		
@@ -104,145 +199,351 @@ public class TrackTreeRoot {
 	
 	
 	/**
-	 * Imports tracks fetched from Spotify DB into the trackTree.
-	 * 
-	 * Parallelizing this method led to minor speedup and was 
-	 * therefore dropped.
-	 * @param newTracks
+	 * Walks the tree once along the words starting at the given position and
+	 * records a track for every title length that matches there, both from
+	 * memory and from the persisted index.
+	 * @param words
+	 * @param ids word IDs of the words, see WordDictionary.lookup
+	 * @param from position of the first title word
+	 * @param matches matches[len] receives a track titled words[from..from+len)
+	 * 		or stays null
+	 * @return the longest matched length, 0 if nothing matched
 	 */
-	public void importTracks(List<Track> newTracks) {
+	public int findTitles(String[] words, int[] ids, int from, Track[] matches) {
 		
-
-		for ( Track t : newTracks ) {
+		long start = System.nanoTime();
+		int longest = 0;
+		
+		if ( index != null )
+			longest = index.findTitles(words, from, matches);
 		
-			String[] words = SentenceSplitter.splitToWords(t.getName());
+		TrackTreeNode ttn = branch(ids[from]);
+		int len = 1;
+		
+		while ( ttn != null ) {
 			
-			if ( words.length == 0 ) 
-				continue;
+			Track t = ttn.getTrack();
+			if ( t != null ) {
+				matches[len] = t;
+				longest = Math.max(longest, len);
+			}
 			
-			TrackTreeNode ttn = trackTree.get(words[0]);
+			if ( from + len == words.length )
+				break;
 			
-			if ( ttn == null ) {
-				// there are no songs starting with given word 
-				insertNewTrack(t);
-			}
-			else {
-				// there are some songs starting with the given word
-				insertExistingTrack(t,ttn,words);
-			}
+			ttn = ttn.getChild(ids[from + len]);
+			len++;
 		}
 		
-	}	
+		Metrics.PREFIX.recordSince(start);
+		return longest;
+	}
 	
 	/**
-	 * Inserts a track whose first was not present in trackTree yet.
-	 * @param t
+	 * @param id word ID
+	 * @return branch of titles starting with the word, reloaded from the
+	 * 		spill if it was evicted, null if there is none
 	 */
-	private void insertNewTrack(Track t) {
-		
-		TrackTreeNode ttn;
-		
-		String[] words = SentenceSplitter.splitToWords(t.getName());
-		
-		if ( words.length == 0 )
-			return;
-		
-		// put an entry to the root node
-		ttn = new TrackTreeNode(words[0],null,0);
-		trackTree.put(words[0], ttn);
-		
-		// track name is 1 word -> no need to add any children
-		if ( words.length == 1 ) {
-			ttn.addTrack(t);
-			return;
+	private TrackTreeNode branch(int id) {
+
+		// a branch may have been created while its titles were being spilled
+		if ( spill != null && spill.contains(id) ) {
+			restore(id);
+			evictIfNeeded();
 		}
-		
-		insertNewTrack(ttn, Arrays.copyOfRange(words, 1, words.length), t);
 
+		TrackTreeBranch branch = (TrackTreeBranch) root.getChild(id);
+
+		if ( branch != null )
+			branch.touch(System.nanoTime());
+
+		return branch;
 	}
-	
+
 	/**
-	 * Inserts a track that already has a portion of its title prefix present in the
-	 * trackTree.
-	 * @param t
-	 * @param rootNode
-	 * @param words
+	 * Imports tracks fetched from Spotify DB into the trackTree.
+	 * 
+	 * May be called concurrently with other imports and lookups.
+	 * @param newTracks
 	 */
-	private void insertExistingTrack(Track t, TrackTreeNode rootNode, String[] words) {
+	public void importTracks(List<Track> newTracks) {
+
+		long start = System.nanoTime();
 		
-		// find matching prefix
-		TrackTreeNode ttn = lookupNode(rootNode,words);
+		for ( Track t : newTracks )
+			accept(t);
 		
-		// depth == 0 still requires cutting one word
-		int cutFrom = 0;
-		if ( ttn.getDepth() == 0 ) {
-			cutFrom = 1;
-		} else {
-			cutFrom = ttn.getDepth();
+		Metrics.IMPORT.recordSince(start);
+	}	
+
+	/**
+	 * Imports a single track, allows the tree to be fed by the parser.
+	 */
+	@Override
+	public void accept(Track t) {
+		add(t);
+		evictIfNeeded();
+	}
+
+	private void add(Track t) {
+
+		// the title words go from the tokenizer's buffer to IDs directly
+		Tokenizer tokenizer = Tokenizer.get();
+		int n = tokenizer.tokenize(t.getName());
+
+		if ( n == 0 ) 
+			return;
+
+		char[] chars = tokenizer.chars();
+		int first = dictionary.intern(chars, tokenizer.start(0), tokenizer.length(0));
+
+		// merge with the evicted titles, the restore reuses the tokenizer
+		if ( spill != null && spill.contains(first) ) {
+			restore(first);
+			tokenizer.tokenize(t.getName());
+			chars = tokenizer.chars();
 		}
-		
-		String[] wordsReminder = Arrays.copyOfRange(words, cutFrom, words.length);
-		
-		// if wordsReminder is empty, put track to ttn! 
-		if ( wordsReminder.length == 0) {
-			ttn.addTrack(t);
-		} 
 
-		// insert the rest of the song title anew
-		else {
-			insertNewTrack(ttn,wordsReminder,t);
+		TrackTreeBranch branch = (TrackTreeBranch) root.getOrAddChild(first, null);
+		TrackTreeNode ttn = branch;
+
+		for ( int i=1;i<n;i++ ) {
+			ttn = ttn.getOrAddChild(dictionary.intern(chars, tokenizer.start(i), tokenizer.length(i)),
+					branch);
+		}
+
+		if ( ttn.addTrack(t) ) {
+			if ( !branch.trackAdded(t) ) {
+				// the branch was evicted meanwhile, the track may have missed the spill
+				add(t);
+				return;
+			}
+			// stamped after the track is visible, so a split which saw the
+			// old version and missed the track gets invalidated
+			long v = version.incrementAndGet();
+			branch.updateStamp(v);
+			branch.touch(System.nanoTime());
 		}
-		
 	}
 
 	/**
-	 * Searches for the longest known matching prefix for a given node.
-	 * @param rootNode from where start traversing
-	 * @param words name of the looked-up node
-	 * @return
+	 * Loads the evicted titles starting with the word back into the tree.
+	 * @param id word ID
 	 */
-	private TrackTreeNode lookupNode(TrackTreeNode rootNode, String[] words) {
-		
-		TrackTreeNode ttn = rootNode;
-		TrackTreeNode ttnChild;
-		
-		for ( int i=0;i<words.length;i++ ) {
-			
-			ttnChild = rootNode.getChild(words[i]);
+	private void restore(int id) {
+		try {
+			List<Track> tracks = spill.take(id);
+			if ( tracks != null ) {
+				for ( Track t : tracks )
+					add(t);
+			}
+		} catch (IOException e) {
+			System.err.println("ERROR: can't reload titles: " + e.getMessage());
+		}
+	}
 
-			if ( ttnChild == null )
-				return ttn;
-			else {
-				ttn = ttnChild;
+	/**
+	 * Counts nodes, tracks and bytes added to (or, when negative, removed
+	 * from) a branch.
+	 */
+	void added(long nodes, long tracks, long bytes) {
+		if ( nodes != 0 )
+			nodeCount.add(nodes);
+		if ( tracks != 0 )
+			trackCount.add(tracks);
+		usedBytes.add(bytes);
+	}
+
+	private void evictIfNeeded() {
+		if ( memoryBudget > 0 && usedBytes.sum() > memoryBudget )
+			evict();
+	}
+
+	/**
+	 * Removes the least recently used branches until the tree takes at most
+	 * 90 % of the budget, so the next few imports don't evict again. The
+	 * dictionary is left out of the budget: it is not shrunk, its words are
+	 * translated to IDs by lookups running without a lock, and once it alone
+	 * exceeded the budget every import would evict all branches.
+	 */
+	private void evict() {
+
+		synchronized ( evictLock ) {
+
+			long used = usedBytes.sum();
+			if ( used <= memoryBudget )
+				return;
+
+			TrackTreeNode[] children = root.getChildren();
+			final long[] lastAccess = new long[children.length];
+			Integer[] order = new Integer[children.length];
+			for ( int i=0;i<order.length;i++ ) {
+				order[i] = i;
+				// read once, the sort needs a stable order
+				lastAccess[i] = ((TrackTreeBranch) children[i]).getLastAccess();
 			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return Long.compare(lastAccess[a], lastAccess[b]);
+				}
+			});
+
+			long target = memoryBudget / 10 * 9;
+			List<TrackTreeBranch> victims = new ArrayList<TrackTreeBranch>();
+			for ( int i=0;i<order.length && used > target;i++ ) {
+				TrackTreeBranch branch = (TrackTreeBranch) children[order[i]];
+				victims.add(branch);
+				used -= branch.getBytes();
+			}
+
+			int[] ids = new int[victims.size()];
+			for ( int i=0;i<ids.length;i++ )
+				ids[i] = victims.get(i).getWord();
+			root.removeChildren(ids);
+
+			for ( TrackTreeBranch branch : victims ) {
+
+				long[] counted = branch.detach();
+				added(-counted[0], -counted[1], -counted[2]);
+
+				if ( spill != null ) {
+					List<Track> tracks = new ArrayList<Track>();
+					collect(branch, tracks);
+					try {
+						spill.put(branch.getWord(), tracks);
+					} catch (IOException e) {
+						System.err.println("ERROR: can't spill titles: " + e.getMessage());
+					}
+				}
+			}
+
+			evictions.add(victims.size());
 		}
-		return ttn;
+	}
+
+	private static void collect(TrackTreeNode ttn, List<Track> tracks) {
+		for ( Track t : ttn.getTracks() )
+			tracks.add(t);
+		for ( TrackTreeNode child : ttn.getChildren() )
+			collect(child, tracks);
+	}
+	
+	/**
+	 * @return version of the tree, increases with every change
+	 */
+	public long getVersion() {
+		return version.get();
 	}
 
 	/**
-	 * Insert a track under an existing non-root node.
-	 * @param ttnStart
+	 * Splits of a sentence can only change when titles starting with one of
+	 * its words change.
 	 * @param words
-	 * @param t
+	 * @return version of the last change of titles starting with one of
+	 * 		the words, 0 if there was none
 	 */
-	private void insertNewTrack(TrackTreeNode ttnStart, String[] words, Track t) {
+	public long getStamp(String[] words) {
+
+		long stamp = 0;
+
+		for ( int id : dictionary.lookup(words) ) {
+			TrackTreeBranch branch = (TrackTreeBranch) root.getChild(id);
+			if ( branch != null )
+				stamp = Math.max(stamp, branch.getStamp());
+		}
+
+		return stamp;
+	}
+
+	/**
+	 * @return number of nodes in memory, the persisted index is not counted
+	 */
+	public long getNodeCount() {
+		return nodeCount.sum();
+	}
+
+	/**
+	 * @return number of tracks in memory, the persisted index is not counted
+	 */
+	public long getTrackCount() {
+		return trackCount.sum();
+	}
+
+	/**
+	 * @return estimated bytes taken by the nodes, tracks and the dictionary,
+	 * 		only the nodes and tracks count against the memory budget
+	 */
+	public long getUsedBytes() {
+		return usedBytes.sum() + dictionary.getBytes();
+	}
+
+	/**
+	 * @return number of branches evicted so far
+	 */
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Calls the visitor for every known track, including the ones from the
+	 * persisted index and the spill.
+	 * @param visitor
+	 */
+	public void forEachTrack(final TrackVisitor visitor) {
 		
-		TrackTreeNode ttn = ttnStart;
-		TrackTreeNode ttnChild;
+		if ( index != null )
+			index.forEachTrack(visitor);
 		
-		for ( int i=0;i<words.length-1;i++) {
-			
-			ttnChild = ttn.getChild(words[i]);
-			if ( ttnChild == null ) {
-				ttnChild = new TrackTreeNode(words[i],null,ttn.getDepth()+1);
-			}
+		List<String> path = new ArrayList<String>();
+		for ( TrackTreeNode ttn : root.getChildren() )
+			visit(ttn, path, visitor);
 
-			ttn.addChild(words[i], ttnChild);
-			ttn = ttnChild;
+		if ( spill != null ) {
+			try {
+				spill.forEachTrack(new TrackSink() {
+					@Override
+					public void accept(Track t) {
+						visitor.visit(Tokenizer.split(t.getName()), t);
+					}
+				});
+			} catch (IOException e) {
+				System.err.println("ERROR: can't read spilled titles: " + e.getMessage());
+			}
+		}
+	}
+	
+	private void visit(TrackTreeNode ttn, List<String> path, TrackVisitor visitor) {
+		
+		path.add(dictionary.word(ttn.getWord()));
+		
+		if ( ttn.getTracks().length != 0 ) {
+			String[] words = path.toArray(new String[path.size()]);
+			for ( Track t : ttn.getTracks() )
+				visitor.visit(words, t);
 		}
 		
-		ttnChild = new TrackTreeNode(words[words.length-1],t,ttn.getDepth()+1);
-		ttn.addChild(words[words.length-1], ttnChild);
-	}	
+		for ( TrackTreeNode child : ttn.getChildren() )
+			visit(child, path, visitor);
+		
+		path.remove(path.size()-1);
+	}
+
+	/**
+	 * Persists all known tracks into the given index file, so the next run
+	 * can map them instead of fetching them again.
+	 * @param file
+	 * @throws IOException
+	 */
+	public void writeIndex(File file) throws IOException {
+		MappedTrackIndex.write(this, file);
+	}
+
+	/**
+	 * Receives tracks together with the words of the tree path leading to them.
+	 */
+	public interface TrackVisitor {
+		public void visit(String[] words, Track t);
+	}
 	
 }
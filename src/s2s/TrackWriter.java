@@ -0,0 +1,139 @@
+package s2s;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Writes split sentences to a file in the format printed by InputReader,
+ * byte for byte: every track as "\t%36s <title>\n" and the line separator
+ * after every sentence, encoded in the default charset.
+ *
+ * The formatting is done by hand into a reused character array, the bytes
+ * collect in a large buffer which goes to the file channel only when full.
+ * Not thread safe, sentences are written from one thread in input order.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class TrackWriter {
+
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final int URL_WIDTH = 36;
+	private static final String LINE_SEPARATOR = System.lineSeparator();
+
+	private FileChannel channel;
+	private CharsetEncoder encoder;
+	private ByteBuffer bytes;
+	private char[] chars;
+	private int length;
+
+	/**
+	 * @param file created or truncated
+	 * @throws IOException
+	 */
+	public TrackWriter(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+		// replaced the same way System.out replaces what it can't encode
+		encoder = Charset.defaultCharset().newEncoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		chars = new char[4096];
+	}
+
+	/**
+	 * Writes one split sentence, warns when it is partial.
+	 * @param tracks
+	 * @throws IOException
+	 */
+	public void write(List<Track> tracks) throws IOException {
+
+		InputReader.warnIfPartial(tracks);
+
+		length = 0;
+
+		for ( Track t : tracks ) {
+			String url = String.valueOf(t.getUrl());
+			append('\t');
+			for ( int i=url.length();i<URL_WIDTH;i++ )
+				append(' ');
+			append(url);
+			append(' ');
+			append(String.valueOf(t.getName()));
+			append('\n');
+		}
+		append(LINE_SEPARATOR);
+
+		encode();
+	}
+
+	private void append(char c) {
+		if ( length == chars.length )
+			grow(length + 1);
+		chars[length++] = c;
+	}
+
+	private void append(String s) {
+		int n = s.length();
+		if ( length + n > chars.length )
+			grow(length + n);
+		s.getChars(0, n, chars, length);
+		length += n;
+	}
+
+	private void grow(int min) {
+		char[] grown = new char[Math.max(chars.length * 2, min)];
+		System.arraycopy(chars, 0, grown, 0, length);
+		chars = grown;
+	}
+
+	/**
+	 * Encodes the formatted sentence into the byte buffer, writing the buffer
+	 * out whenever it fills up.
+	 */
+	private void encode() throws IOException {
+
+		CharBuffer in = CharBuffer.wrap(chars, 0, length);
+		encoder.reset();
+
+		CoderResult result;
+		while ( (result = encoder.encode(in, bytes, true)).isOverflow() )
+			drain();
+		if ( result.isError() )
+			result.throwException();
+
+		while ( encoder.flush(bytes).isOverflow() )
+			drain();
+	}
+
+	private void drain() throws IOException {
+		bytes.flip();
+		while ( bytes.hasRemaining() )
+			channel.write(bytes);
+		bytes.clear();
+	}
+
+	/**
+	 * Writes out the buffered sentences and closes the file.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		try {
+			drain();
+		} finally {
+			channel.close();
+		}
+	}
+
+}
@@ -0,0 +1,263 @@
+package s2s;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Dictionary assigning int IDs to words of known song titles.
+ *
+ * The tree stores only the IDs, so every distinct word is kept in memory
+ * once and looking up a child compares ints instead of strings. IDs are
+ * assigned sequentially from 0. Implemented as an open-addressing hash table
+ * of IDs, the words themselves are kept in an array indexed by the ID.
+ *
+ * Lookups are lock-free, new words are added under the dictionary lock. A new
+ * ID is published by a volatile write of its slot after the word is stored, and
+ * a grown table is fully built before it replaces the old one.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class WordDictionary {
+
+	/** ID returned for words which are not in the dictionary */
+	public static final int UNKNOWN = -1;
+
+	private static final int EMPTY = -1;
+
+	/** estimated bytes of a word: the string, its ID and hash slots, without the characters */
+	static final long WORD_BYTES = 56;
+
+	private volatile Table table;
+	private volatile int size;
+	private volatile long bytes;
+
+	public WordDictionary() {
+		table = new Table(1024, 512);
+		size = 0;
+	}
+
+	/**
+	 * Returns the ID of the word, assigning a new one to unknown words.
+	 * @param word
+	 * @return
+	 */
+	public int intern(String word) {
+
+		int id = lookup(word);
+		if ( id != UNKNOWN )
+			return id;
+
+		synchronized (this) {
+			id = lookup(word);
+			if ( id != UNKNOWN )
+				return id;
+			return add(word, word.hashCode());
+		}
+	}
+
+	/**
+	 * Returns the ID of the word given as a span of characters, assigning
+	 * a new one to unknown words. A string is only created for a new word.
+	 * @param chars
+	 * @param off
+	 * @param len
+	 * @return
+	 */
+	public int intern(char[] chars, int off, int len) {
+
+		int id = lookup(chars, off, len);
+		if ( id != UNKNOWN )
+			return id;
+
+		synchronized (this) {
+			id = lookup(chars, off, len);
+			if ( id != UNKNOWN )
+				return id;
+			return add(new String(chars, off, len), hash(chars, off, len));
+		}
+	}
+
+	/**
+	 * Adds a word known not to be in the dictionary, under the lock.
+	 */
+	private int add(String word, int h) {
+
+		Table t = table;
+		int id = size;
+		int mask = t.slots.length() - 1;
+
+		if ( id == t.words.length || (id+1)*2 > t.slots.length() ) {
+			t = t.grow();
+			table = t;
+			mask = t.slots.length() - 1;
+		}
+
+		t.words[id] = word;
+		t.hashes[id] = h;
+
+		int i = mix(h) & mask;
+		while ( t.slots.get(i) != EMPTY )
+			i = (i+1) & mask;
+		t.slots.set(i, id);
+
+		size = id + 1;
+		bytes += WORD_BYTES + 2 * word.length();
+		return id;
+	}
+
+	/**
+	 * Returns the ID of the word.
+	 * @param word
+	 * @return ID or UNKNOWN
+	 */
+	public int lookup(String word) {
+
+		Table t = table;
+		int h = word.hashCode();
+		int mask = t.slots.length() - 1;
+
+		for ( int i=mix(h) & mask;;i=(i+1) & mask ) {
+			int id = t.slots.get(i);
+			if ( id == EMPTY )
+				return UNKNOWN;
+			if ( t.hashes[id] == h && t.words[id].equals(word) )
+				return id;
+		}
+	}
+
+	/**
+	 * Returns the ID of the word given as a span of characters.
+	 * @param chars
+	 * @param off
+	 * @param len
+	 * @return ID or UNKNOWN
+	 */
+	public int lookup(char[] chars, int off, int len) {
+
+		Table t = table;
+		int h = hash(chars, off, len);
+		int mask = t.slots.length() - 1;
+
+		for ( int i=mix(h) & mask;;i=(i+1) & mask ) {
+			int id = t.slots.get(i);
+			if ( id == EMPTY )
+				return UNKNOWN;
+			if ( t.hashes[id] == h && matches(t.words[id], chars, off, len) )
+				return id;
+		}
+	}
+
+	/**
+	 * Translates all words to their IDs, without adding unknown words.
+	 * @param words
+	 * @return IDs, UNKNOWN for unknown words
+	 */
+	public int[] lookup(String[] words) {
+		int[] ids = new int[words.length];
+		for ( int i=0;i<words.length;i++ )
+			ids[i] = lookup(words[i]);
+		return ids;
+	}
+
+	/**
+	 * @param id
+	 * @return the word with the given ID
+	 */
+	public String word(int id) {
+		return table.words[id];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return estimated bytes taken by the words
+	 */
+	public long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return String.hashCode of the span
+	 */
+	private static int hash(char[] chars, int off, int len) {
+		int h = 0;
+		for ( int i=off;i<off+len;i++ )
+			h = 31*h + chars[i];
+		return h;
+	}
+
+	private static boolean matches(String word, char[] chars, int off, int len) {
+		if ( word.length() != len )
+			return false;
+		for ( int i=0;i<len;i++ ) {
+			if ( word.charAt(i) != chars[off+i] )
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Spreads the bits of String.hashCode, which is weak in the low bits.
+	 */
+	static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Hash slots together with the words they point to. Replaced as a whole
+	 * when it grows.
+	 */
+	private static class Table {
+
+		final AtomicIntegerArray slots;
+		final String[] words;
+		final int[] hashes;
+
+		Table(int slotCnt, int wordCnt) {
+			slots = new AtomicIntegerArray(slotCnt);
+			for ( int i=0;i<slotCnt;i++ )
+				slots.set(i, EMPTY);
+			words = new String[wordCnt];
+			hashes = new int[wordCnt];
+		}
+
+		private Table(AtomicIntegerArray slots, String[] words, int[] hashes) {
+			this.slots = slots;
+			this.words = words;
+			this.hashes = hashes;
+		}
+
+		/**
+		 * @return copy with twice the capacity
+		 */
+		Table grow() {
+
+			String[] newWords = Arrays.copyOf(words, words.length*2);
+			int[] newHashes = Arrays.copyOf(hashes, hashes.length*2);
+
+			int slotCnt = Math.max(slots.length(), newWords.length*2);
+			AtomicIntegerArray newSlots = new AtomicIntegerArray(slotCnt);
+			for ( int i=0;i<slotCnt;i++ )
+				newSlots.set(i, EMPTY);
+
+			int mask = slotCnt - 1;
+			for ( int j=0;j<slots.length();j++ ) {
+				int id = slots.get(j);
+				if ( id == EMPTY )
+					continue;
+				int i = mix(hashes[id]) & mask;
+				while ( newSlots.get(i) != EMPTY )
+					i = (i+1) & mask;
+				newSlots.set(i, id);
+			}
+
+			return new Table(newSlots, newWords, newHashes);
+		}
+	}
+
+}
@@ -0,0 +1,136 @@
+package s2s;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * The batch mode output has to be byte for byte what InputReader prints for
+ * the same input.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class BatchFileReaderTest {
+
+	/** words of the sentences: non-ASCII, long titles and long URIs included */
+	private static final String[] WORDS = {
+		"love", "me", "do", "Café", "über", "日本語", "😀", "İstanbul",
+		"a-title-much-longer-than-the-thirty-six-characters-of-the-uri-column",
+		"x", "ab", "", ","
+	};
+
+	private static final String[] LINE_ENDS = { "\n", "\r\n", "\r" };
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void sameBytesAsStandardOutput() throws Exception {
+
+		File in = input(new Random(1), 2000);
+
+		byte[] expected = standardOutput(in, 1);
+		for ( int regionSize : new int[] { 1 << 20, 4096, 100, 7 } )
+			assertArrayEquals("region " + regionSize, expected, batchOutput(in, 1, regionSize));
+	}
+
+	@Test
+	public void sameBytesAsPipelinedStandardOutput() throws Exception {
+
+		File in = input(new Random(2), 2000);
+
+		byte[] expected = standardOutput(in, 4);
+		assertArrayEquals(expected, standardOutput(in, 1));
+		assertArrayEquals(expected, batchOutput(in, 4, 64));
+	}
+
+	@Test
+	public void blankLinesAndMissingLastLineEnd() throws Exception {
+
+		File in = folder.newFile();
+		Files.write(in.toPath(), "\n\r\n\rlove me\r\n\r\n\nlast".getBytes("UTF-8"));
+
+		assertArrayEquals(standardOutput(in, 1), batchOutput(in, 1, 3));
+	}
+
+	/**
+	 * Writes random sentences with mixed line ends.
+	 */
+	private File input(Random random, int lines) throws Exception {
+
+		StringBuilder s = new StringBuilder();
+		for ( int i=0;i<lines;i++ ) {
+			int n = random.nextInt(6);
+			for ( int j=0;j<n;j++ ) {
+				if ( j > 0 )
+					s.append(' ');
+				s.append(WORDS[random.nextInt(WORDS.length)]);
+			}
+			s.append(LINE_ENDS[random.nextInt(LINE_ENDS.length)]);
+		}
+
+		File file = folder.newFile();
+		Files.write(file.toPath(), s.toString().getBytes());
+		return file;
+	}
+
+	private byte[] standardOutput(File in, int parallelism) throws Exception {
+
+		InputStream stdin = System.in;
+		PrintStream stdout = System.out;
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+		try {
+			System.setIn(new FileInputStream(in));
+			System.setOut(new PrintStream(out));
+			new InputReader(new StubSplitter(), parallelism, 2 * parallelism).run();
+			System.out.flush();
+		} finally {
+			System.in.close();
+			System.setIn(stdin);
+			System.setOut(stdout);
+		}
+
+		return out.toByteArray();
+	}
+
+	private byte[] batchOutput(File in, int parallelism, int regionSize) throws Exception {
+
+		File out = folder.newFile();
+		BatchFileReader reader = new BatchFileReader(new StubSplitter(), in, out,
+				parallelism, 2 * parallelism);
+		reader.setRegionSize(regionSize);
+		reader.run();
+
+		return Files.readAllBytes(out.toPath());
+	}
+
+	/**
+	 * Turns every word into a track, some without URI.
+	 */
+	private static class StubSplitter extends SentenceSplitter {
+
+		@Override
+		public TrackList splitToTracks(String sentence) {
+			TrackList tracks = new TrackList();
+			for ( String word : sentence.split(" ") ) {
+				String url = word.length() % 3 == 0 ? "" : "spotify:track:" + word;
+				tracks.add(new Track(word, url));
+			}
+			return tracks;
+		}
+	}
+
+}
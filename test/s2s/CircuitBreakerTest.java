@@ -0,0 +1,135 @@
+package s2s;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import s2s.CircuitBreaker.State;
+
+/**
+ * @author rzvoncek
+ *
+ */
+
+public class CircuitBreakerTest {
+
+	private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private CircuitBreaker breaker;
+
+	@Before
+	public void setUp() {
+		breaker = new CircuitBreaker(10, 5, 0.5, 0.8, SLOW, 100, 1000);
+	}
+
+	@Test
+	public void staysClosedBelowMinCalls() {
+
+		for ( int i=0;i<4;i++ )
+			breaker.recordFailure();
+
+		assertEquals(State.CLOSED, breaker.getState());
+		assertTrue(breaker.allowRequest());
+	}
+
+	@Test
+	public void failuresTripBreaker() {
+
+		for ( int i=0;i<5;i++ )
+			breaker.recordFailure();
+
+		assertEquals(State.OPEN, breaker.getState());
+		assertEquals(1, breaker.getTripCount());
+		assertFalse(breaker.allowRequest());
+	}
+
+	@Test
+	public void slowCallsTripBreaker() {
+
+		breaker.recordSuccess(FAST);
+		for ( int i=0;i<4;i++ )
+			breaker.recordSuccess(SLOW);
+
+		assertEquals(State.OPEN, breaker.getState());
+	}
+
+	@Test
+	public void successfulProbeClosesBreaker() throws InterruptedException {
+
+		trip();
+		Thread.sleep(150);
+
+		// a single probe
+		assertTrue(breaker.allowRequest());
+		long sent = System.nanoTime();
+		assertEquals(State.HALF_OPEN, breaker.getState());
+		assertFalse(breaker.allowRequest());
+
+		breaker.recordSuccess(System.nanoTime() - sent);
+		assertEquals(State.CLOSED, breaker.getState());
+		assertTrue(breaker.allowRequest());
+	}
+
+	@Test
+	public void failedProbeReopensBreaker() throws InterruptedException {
+
+		trip();
+		Thread.sleep(150);
+
+		assertTrue(breaker.allowRequest());
+		breaker.recordFailure();
+
+		assertEquals(State.OPEN, breaker.getState());
+		assertEquals(2, breaker.getTripCount());
+
+		// the second open period lasts 100-200 ms
+		Thread.sleep(50);
+		assertFalse(breaker.allowRequest());
+		Thread.sleep(200);
+		assertTrue(breaker.allowRequest());
+	}
+
+	@Test
+	public void lateSuccessDoesNotCloseBreaker() throws InterruptedException {
+
+		breaker = new CircuitBreaker(10, 5, 0.5, 0.8, TimeUnit.SECONDS.toNanos(1), 100, 1000);
+		long sent = System.nanoTime();
+		trip();
+		Thread.sleep(150);
+
+		assertTrue(breaker.allowRequest());
+		long probeSent = System.nanoTime();
+
+		// answer to a request sent before the breaker opened
+		breaker.recordSuccess(System.nanoTime() - sent);
+		assertEquals(State.HALF_OPEN, breaker.getState());
+
+		breaker.recordSuccess(System.nanoTime() - probeSent);
+		assertEquals(State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void backoffIsJitteredAndBounded() {
+
+		for ( int attempt=0;attempt<40;attempt++ ) {
+			long delay = Math.min(1000, 100L << Math.min(attempt, 30));
+			for ( int i=0;i<100;i++ ) {
+				long d = CircuitBreaker.backoff(100, 1000, attempt);
+				assertTrue(d >= delay / 2 && d <= delay);
+			}
+		}
+	}
+
+	private void trip() {
+		for ( int i=0;i<5;i++ )
+			breaker.recordFailure();
+		assertEquals(State.OPEN, breaker.getState());
+	}
+
+}
@@ -0,0 +1,79 @@
+package s2s;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Parsing of the search responses.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class HttpTrackSourceTest {
+
+	/** cut marks, characters lower-cased depending on their context and escapes */
+	private static final String[] ALPHABET = {
+		"a", "Z", " ", " ", "-", "(", ")", "é", "É", "İ", "Σ", "σ", "Ω", "𐐀", "&amp;", "&lt;"
+	};
+
+	@Test
+	public void titlesAreCleaned() throws Exception {
+
+		List<Track> tracks = parse("Black Dog - Remastered", "Ramble On (Live)",
+				"ΟΔΟΣ ΣΑΣ", "İstanbul", "𐐀 Deseret");
+
+		assertEquals("black dog", tracks.get(0).getName());
+		assertEquals("ramble on ", tracks.get(1).getName());
+		assertEquals("οδος σας", tracks.get(2).getName());
+		assertEquals("İstanbul".toLowerCase(), tracks.get(3).getName());
+		assertEquals("𐐨 deseret", tracks.get(4).getName());
+		assertEquals("spotify:track:0", tracks.get(0).getUrl());
+	}
+
+	@Test
+	public void matchesCleanTitle() throws Exception {
+
+		Random random = new Random(12);
+
+		for ( int i=0;i<2000;i++ ) {
+
+			StringBuilder s = new StringBuilder();
+			int n = random.nextInt(16);
+			for ( int j=0;j<n;j++ )
+				s.append(ALPHABET[random.nextInt(ALPHABET.length)]);
+
+			String xml = s.toString();
+			String text = xml.replace("&amp;", "&").replace("&lt;", "<");
+			assertEquals(xml, Track.cleanTitle(text), parse(xml).get(0).getName());
+		}
+	}
+
+	private static List<Track> parse(String... names) throws Exception {
+
+		StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?>"
+				+ "<tracks xmlns=\"http://www.spotify.com/ns/music/1\">");
+		for ( int i=0;i<names.length;i++ ) {
+			xml.append("<track href=\"spotify:track:").append(i).append("\"><name>")
+				.append(names[i]).append("</name></track>");
+		}
+		xml.append("</tracks>");
+
+		final List<Track> tracks = new ArrayList<Track>();
+		HttpTrackSource.parse(new ByteArrayInputStream(xml.toString().getBytes("UTF-8")),
+				new TrackSink() {
+			@Override
+			public void accept(Track t) {
+				tracks.add(t);
+			}
+		});
+		return tracks;
+	}
+
+}
@@ -0,0 +1,69 @@
+package s2s;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * @author rzvoncek
+ *
+ */
+
+public class LatencyTrackerTest {
+
+	@Test
+	public void unknownBeforeMinSamples() {
+
+		LatencyTracker tracker = new LatencyTracker(100, 20);
+		for ( int i=0;i<19;i++ )
+			tracker.record(1000);
+
+		assertEquals(-1, tracker.percentile(90));
+		tracker.record(1000);
+		assertTrue(tracker.percentile(90) >= 1000);
+	}
+
+	@Test
+	public void closeToExactPercentile() {
+
+		Random random = new Random(3);
+		LatencyTracker tracker = new LatencyTracker(1000, 20);
+		long[] window = new long[1000];
+
+		for ( int i=0;i<5000;i++ ) {
+
+			long nanos = (long) (Math.exp(random.nextGaussian() * 2 + 16));
+			tracker.record(nanos);
+			window[i % window.length] = nanos;
+
+			if ( i >= window.length && i % 97 == 0 ) {
+				long[] sorted = window.clone();
+				Arrays.sort(sorted);
+				for ( double p : new double[] { 50, 90, 99 } ) {
+					long exact = sorted[(int) Math.ceil(p / 100 * sorted.length) - 1];
+					long estimate = tracker.percentile(p);
+					assertTrue(p + ": " + estimate + " vs " + exact,
+							estimate >= exact && estimate <= exact + exact / 16);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void oldLatenciesLeaveWindow() {
+
+		LatencyTracker tracker = new LatencyTracker(50, 20);
+		for ( int i=0;i<50;i++ )
+			tracker.record(1000000000L);
+		for ( int i=0;i<50;i++ )
+			tracker.record(1000000);
+
+		long estimate = tracker.percentile(99);
+		assertTrue(estimate >= 1000000 && estimate < 1100000);
+	}
+
+}
@@ -0,0 +1,153 @@
+package s2s;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Writes a tree into an index file, maps it back and compares the lookups.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class MappedTrackIndexTest {
+
+	/** words sharing prefixes, multi-byte characters included */
+	private static final String[] VOCABULARY = {
+		"a", "ab", "abc", "b", "love", "lovely", "you", "don't", "café", "über",
+		"šče", "日本", "𐐨"
+	};
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private TrackTreeRoot tree;
+	private MappedTrackIndex index;
+	private Set<String> titles;
+	private Random random;
+
+	@Before
+	public void setUp() throws Exception {
+
+		random = new Random(7);
+		titles = new HashSet<String>();
+		while ( titles.size() < 500 )
+			titles.add(randomWords(1 + random.nextInt(5)));
+
+		List<Track> tracks = new ArrayList<Track>();
+		for ( String title : titles )
+			tracks.add(new Track(title, url(title)));
+		tree = new TrackTreeRoot();
+		tree.importTracks(tracks);
+
+		File file = folder.newFile("tracks.idx");
+		tree.writeIndex(file);
+		index = MappedTrackIndex.open(file);
+	}
+
+	@Test
+	public void countsMatchTree() {
+		assertEquals(tree.getTrackCount(), index.getTrackCount());
+		// the index stores the root node as well
+		assertEquals(tree.getNodeCount() + 1, index.getNodeCount());
+		assertEquals(tree.getDictionary().size(), index.getWordCount());
+	}
+
+	@Test
+	public void visitsAllTracks() {
+
+		final Set<String> visited = new HashSet<String>();
+		index.forEachTrack(new TrackTreeRoot.TrackVisitor() {
+			@Override
+			public void visit(String[] words, Track t) {
+				assertEquals(url(join(words)), t.getUrl());
+				visited.add(t.getName());
+			}
+		});
+
+		assertEquals(titles, visited);
+	}
+
+	@Test
+	public void lookupsMatchTree() {
+
+		for ( int i=0;i<2000;i++ ) {
+
+			String[] words = randomWords(1 + random.nextInt(8)).split(" ");
+
+			SentencePrefix expected = tree.findLongestPrefix(words);
+			SentencePrefix actual = index.findLongestPrefix(words);
+			if ( expected == null ) {
+				assertNull(actual);
+			} else {
+				assertEquals(expected.getPrefix(), actual.getPrefix());
+				assertEquals(expected.getPrefixLen(), actual.getPrefixLen());
+				assertEquals(url(expected.getLastTrack()), url(actual.getLastTrack()));
+				assertEquals(expected.getLastKnownLength(), actual.getLastKnownLength());
+				assertEquals(url(expected.getLastKnownTrack()), url(actual.getLastKnownTrack()));
+			}
+
+			int[] ids = tree.getDictionary().lookup(words);
+			for ( int from=0;from<words.length;from++ ) {
+				Track[] expectedTitles = new Track[words.length+1];
+				Track[] actualTitles = new Track[words.length+1];
+				assertEquals(tree.findTitles(words, ids, from, expectedTitles),
+						index.findTitles(words, from, actualTitles));
+				for ( int len=0;len<=words.length;len++ )
+					assertEquals(url(expectedTitles[len]), url(actualTitles[len]));
+			}
+		}
+	}
+
+	@Test
+	public void treeFindsIndexedTitles() {
+
+		TrackTreeRoot mapped = new TrackTreeRoot(index);
+
+		for ( String title : titles ) {
+			SentencePrefix prefix = mapped.findLongestPrefix(title.split(" "));
+			assertEquals(url(title), url(prefix.getLastTrack()));
+		}
+	}
+
+	private String randomWords(int n) {
+		StringBuilder s = new StringBuilder();
+		for ( int i=0;i<n;i++ ) {
+			if ( i > 0 )
+				s.append(' ');
+			s.append(VOCABULARY[random.nextInt(VOCABULARY.length)]);
+		}
+		return s.toString();
+	}
+
+	private static String join(String[] words) {
+		StringBuilder s = new StringBuilder();
+		for ( String w : words ) {
+			if ( s.length() > 0 )
+				s.append(' ');
+			s.append(w);
+		}
+		return s.toString();
+	}
+
+	private static String url(String title) {
+		return "spotify:track:" + title;
+	}
+
+	private static String url(Track t) {
+		return t == null ? null : t.getUrl();
+	}
+
+}
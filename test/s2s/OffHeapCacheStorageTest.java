@@ -0,0 +1,161 @@
+package s2s;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Date;
+
+import org.apache.http.Header;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.cache.HttpCacheEntry;
+import org.apache.http.client.cache.HttpCacheUpdateCallback;
+import org.apache.http.impl.client.cache.HeapResource;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicStatusLine;
+import org.junit.Test;
+
+/**
+ * @author rzvoncek
+ *
+ */
+
+public class OffHeapCacheStorageTest {
+
+	private static final int MB = 1 << 20;
+
+	@Test
+	public void segmentsAreAllocatedAsCacheFills() throws Exception {
+
+		OffHeapCacheStorage storage = new OffHeapCacheStorage(2 * MB);
+		assertEquals(0, storage.getAllocatedBytes());
+
+		storage.putEntry("a", entry(100000, 'a'));
+		assertEquals(MB, storage.getAllocatedBytes());
+
+		for ( int i=0;i<12;i++ )
+			storage.putEntry("k" + i, entry(100000, 'k'));
+		assertEquals(2 * MB, storage.getAllocatedBytes());
+		assertEquals(2 * MB, storage.getCapacityBytes());
+	}
+
+	@Test
+	public void leastRecentlyUsedIsEvictedWhenFull() throws Exception {
+
+		OffHeapCacheStorage storage = new OffHeapCacheStorage(2 * MB);
+
+		// about 100 blocks each, 20 fill the storage
+		for ( int i=0;i<20;i++ )
+			storage.putEntry("k" + i, entry(100000, (char) ('a' + i)));
+		assertEquals(20, storage.size());
+		assertEquals(0, storage.getEvictions());
+
+		assertNotNull(storage.getEntry("k0"));
+		storage.putEntry("k20", entry(100000, 'x'));
+
+		assertEquals(1, storage.getEvictions());
+		assertEquals(20, storage.size());
+		assertNull(storage.getEntry("k1"));
+		assertBody(storage.getEntry("k0"), 100000, 'a');
+		assertBody(storage.getEntry("k20"), 100000, 'x');
+		assertEquals(2 * MB, storage.getAllocatedBytes());
+	}
+
+	@Test
+	public void entryLargerThanStoreIsNotKept() throws Exception {
+
+		OffHeapCacheStorage storage = new OffHeapCacheStorage(MB);
+		storage.putEntry("big", entry(1000, 'a'));
+
+		// replacing an entry by one too large drops the old one as well
+		storage.putEntry("big", entry(2 * MB, 'b'));
+
+		assertNull(storage.getEntry("big"));
+		assertEquals(0, storage.size());
+		assertEquals(0, storage.getUsedBytes());
+		assertEquals(0, storage.getEvictions());
+	}
+
+	@Test
+	public void countsHitsAndMisses() throws Exception {
+
+		OffHeapCacheStorage storage = new OffHeapCacheStorage(MB);
+		storage.putEntry("a", entry(10, 'a'));
+
+		storage.getEntry("a");
+		storage.getEntry("a");
+		storage.getEntry("b");
+
+		assertEquals(2, storage.getHits());
+		assertEquals(1, storage.getMisses());
+
+		storage.removeEntry("a");
+		assertNull(storage.getEntry("a"));
+		assertEquals(2, storage.getMisses());
+		assertEquals(0, storage.getUsedBytes());
+	}
+
+	@Test
+	public void updateEntryRoundTrips() throws Exception {
+
+		OffHeapCacheStorage storage = new OffHeapCacheStorage(MB);
+		storage.putEntry("a", entry(5000, 'a'));
+
+		storage.updateEntry("a", new HttpCacheUpdateCallback() {
+			@Override
+			public HttpCacheEntry update(HttpCacheEntry existing) throws IOException {
+				assertBody(existing, 5000, 'a');
+				Header[] headers = Arrays.copyOf(existing.getAllHeaders(),
+						existing.getAllHeaders().length + 1);
+				headers[headers.length - 1] = new BasicHeader("ETag", "\"2\"");
+				return new HttpCacheEntry(existing.getRequestDate(), new Date(),
+						existing.getStatusLine(), headers, existing.getResource());
+			}
+		});
+
+		HttpCacheEntry updated = storage.getEntry("a");
+		assertBody(updated, 5000, 'a');
+		assertEquals("\"2\"", updated.getFirstHeader("ETag").getValue());
+		assertEquals("text/xml", updated.getFirstHeader("Content-Type").getValue());
+		assertEquals(1, storage.size());
+
+		// a missing entry is created by the callback
+		storage.updateEntry("b", new HttpCacheUpdateCallback() {
+			@Override
+			public HttpCacheEntry update(HttpCacheEntry existing) throws IOException {
+				assertNull(existing);
+				return entry(10, 'b');
+			}
+		});
+		assertBody(storage.getEntry("b"), 10, 'b');
+	}
+
+	private static HttpCacheEntry entry(int size, char fill) {
+		byte[] body = new byte[size];
+		Arrays.fill(body, (byte) fill);
+		return new HttpCacheEntry(new Date(), new Date(),
+				new BasicStatusLine(HttpVersion.HTTP_1_1, 200, "OK"),
+				new Header[] { new BasicHeader("Content-Type", "text/xml") },
+				new HeapResource(body));
+	}
+
+	private static void assertBody(HttpCacheEntry entry, int size, char fill) throws IOException {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		InputStream in = entry.getResource().getInputStream();
+		byte[] buf = new byte[8192];
+		for ( int n;(n = in.read(buf)) != -1; )
+			out.write(buf, 0, n);
+		in.close();
+
+		byte[] expected = new byte[size];
+		Arrays.fill(expected, (byte) fill);
+		assertArrayEquals(expected, out.toByteArray());
+	}
+
+}
@@ -0,0 +1,178 @@
+package s2s;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author rzvoncek
+ *
+ */
+
+public class QueryCacheTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void entriesExpire() throws Exception {
+
+		QueryCache cache = new QueryCache(10, 100, 100, null);
+		cache.put("love", tracks("love"));
+
+		assertEquals("love", cache.get("love").get(0).getName());
+		Thread.sleep(150);
+		assertNull(cache.get("love"));
+		assertEquals(0, cache.size());
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void negativeEntriesHaveOwnTtl() throws Exception {
+
+		QueryCache cache = new QueryCache(10, 60000, 100, null);
+		cache.put("love", tracks("love"));
+		cache.put("xyzzy", Collections.<Track>emptyList());
+
+		assertTrue(cache.isNegative("xyzzy"));
+		assertFalse(cache.isNegative("love"));
+		assertFalse(cache.isNegative("unknown"));
+		assertTrue(cache.get("xyzzy").isEmpty());
+
+		Thread.sleep(150);
+		assertFalse(cache.isNegative("xyzzy"));
+		assertNull(cache.get("xyzzy"));
+		assertNotNull(cache.get("love"));
+	}
+
+	@Test
+	public void leastRecentlyUsedIsEvicted() throws Exception {
+
+		QueryCache cache = new QueryCache(2, 60000, 60000, null);
+		cache.put("a", tracks("a"));
+		cache.put("b", tracks("b"));
+		cache.get("a");
+		cache.put("c", tracks("c"));
+
+		assertEquals(2, cache.size());
+		assertNull(cache.get("b"));
+		assertNotNull(cache.get("a"));
+		assertNotNull(cache.get("c"));
+	}
+
+	@Test
+	public void savedOnShutdownAndLoadedOnStart() throws Exception {
+
+		File file = new File(folder.getRoot(), "queries.cache");
+
+		QueryCache cache = new QueryCache(3, 60000, 60000, file);
+		cache.put("a", tracks("a"));
+		cache.put("b", Collections.<Track>emptyList());
+		cache.put("c", tracks("c", "c d"));
+		cache.get("a");
+
+		SpotifyAdapter spotify = new SpotifyAdapter(null, null, new RateLimiter(10, 1));
+		spotify.setQueryCache(cache);
+		spotify.shutDown();
+		assertTrue(file.exists());
+
+		QueryCache loaded = new QueryCache(3, 60000, 60000, file);
+		assertEquals(3, loaded.size());
+		assertTrue(loaded.isNegative("b"));
+		List<Track> c = loaded.get("c");
+		assertEquals(2, c.size());
+		assertEquals("c d", c.get(1).getName());
+		assertEquals("spotify:track:c d", c.get(1).getUrl());
+	}
+
+	@Test
+	public void recencyOrderIsKeptAcrossRuns() throws Exception {
+
+		File file = new File(folder.getRoot(), "queries.cache");
+
+		QueryCache cache = new QueryCache(3, 60000, 60000, file);
+		cache.put("a", tracks("a"));
+		cache.put("b", tracks("b"));
+		cache.put("c", tracks("c"));
+		cache.get("a");
+		cache.save();
+
+		// "b" is the least recently used
+		QueryCache loaded = new QueryCache(3, 60000, 60000, file);
+		loaded.put("d", tracks("d"));
+		assertNull(loaded.get("b"));
+		assertNotNull(loaded.get("a"));
+	}
+
+	@Test
+	public void expiredEntriesAreNotLoaded() throws Exception {
+
+		File file = new File(folder.getRoot(), "queries.cache");
+
+		QueryCache cache = new QueryCache(10, 100, 60000, file);
+		cache.put("old", tracks("old"));
+		cache.save();
+		Thread.sleep(150);
+
+		assertEquals(0, new QueryCache(10, 100, 60000, file).size());
+	}
+
+	@Test
+	public void truncatedFileKeepsWhatWasRead() throws Exception {
+
+		File file = new File(folder.getRoot(), "queries.cache");
+
+		QueryCache cache = new QueryCache(10, 60000, 60000, file);
+		cache.put("a", tracks("a"));
+		cache.put("b", tracks("b"));
+		cache.save();
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - 10);
+		raf.close();
+
+		QueryCache loaded = new QueryCache(10, 60000, 60000, file);
+		assertEquals(1, loaded.size());
+		assertNotNull(loaded.get("a"));
+	}
+
+	@Test
+	public void otherFilesAreRefused() throws Exception {
+
+		File file = folder.newFile("other");
+		FileOutputStream out = new FileOutputStream(file);
+		out.write("not a cache".getBytes("UTF-8"));
+		out.close();
+
+		try {
+			new QueryCache(10, 60000, 60000, file);
+			fail();
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private static List<Track> tracks(String... titles) {
+		Track[] tracks = new Track[titles.length];
+		for ( int i=0;i<titles.length;i++ )
+			tracks[i] = new Track(titles[i], "spotify:track:" + titles[i]);
+		return Arrays.asList(tracks);
+	}
+
+}
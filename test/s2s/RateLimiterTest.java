@@ -0,0 +1,70 @@
+package s2s;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * @author rzvoncek
+ *
+ */
+
+public class RateLimiterTest {
+
+	private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	@Test
+	public void burstIsGrantedAtOnce() {
+
+		RateLimiter limiter = new RateLimiter(10, 3);
+
+		assertEquals(0, limiter.reserve());
+		assertEquals(0, limiter.reserve());
+		assertEquals(0, limiter.reserve());
+
+		// then one permit every 100 ms
+		assertBetween(90 * MS, 100 * MS, limiter.reserve());
+		assertBetween(190 * MS, 200 * MS, limiter.reserve());
+	}
+
+	@Test
+	public void penaltyDelaysNextPermit() {
+
+		RateLimiter limiter = new RateLimiter(10, 1);
+		limiter.penalize(200);
+
+		assertBetween(190 * MS, 200 * MS, limiter.reserve());
+	}
+
+	@Test
+	public void penaltyDoesNotShortenWait() {
+
+		RateLimiter limiter = new RateLimiter(1, 1);
+		limiter.reserve();
+		limiter.penalize(10);
+
+		assertBetween(990 * MS, 1000 * MS, limiter.reserve());
+	}
+
+	@Test
+	public void acquireKeepsRate() throws InterruptedException {
+
+		RateLimiter limiter = new RateLimiter(100, 1);
+		long start = System.nanoTime();
+
+		for ( int i=0;i<21;i++ )
+			limiter.acquire();
+
+		long elapsed = System.nanoTime() - start;
+		assertTrue("took " + elapsed / MS + " ms", elapsed >= 195 * MS);
+	}
+
+	private static void assertBetween(long min, long max, long actual) {
+		assertTrue(actual / MS + " ms not in [" + min / MS + "," + max / MS + "]",
+				actual >= min && actual <= max);
+	}
+
+}
@@ -0,0 +1,146 @@
+package s2s;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * @author rzvoncek
+ *
+ */
+
+public class SegmenterTest {
+
+	@Test
+	public void beatsGreedyLongestPrefix() {
+
+		Segmenter segmenter = segmenter("a b", "c d", "a b c");
+
+		assertEquals("[a b][c d]", splitToString(segmenter, "a b c d"));
+	}
+
+	@Test
+	public void prefersFewerTracks() {
+
+		Segmenter segmenter = segmenter("a", "b", "a b");
+
+		assertEquals("[a b]", splitToString(segmenter, "a b"));
+	}
+
+	@Test
+	public void unmatchedWordsHaveBlankUrl() {
+
+		Segmenter segmenter = segmenter("b c");
+		List<Track> tracks = segmenter.split(words("a b c d"));
+
+		assertEquals(3, tracks.size());
+		assertEquals("a", tracks.get(0).getName());
+		assertEquals("", tracks.get(0).getUrl());
+		assertEquals("b c", tracks.get(1).getName());
+		assertEquals("spotify:track:b c", tracks.get(1).getUrl());
+		assertEquals("d", tracks.get(2).getName());
+		assertEquals("", tracks.get(2).getUrl());
+
+		assertArrayEquals(new boolean[] { false, true, true, false },
+				segmenter.coverage(words("a b c d")));
+	}
+
+	@Test
+	public void matchesBruteForce() {
+
+		Random random = new Random(42);
+
+		for ( int round=0;round<200;round++ ) {
+
+			// a small vocabulary makes titles overlap a lot
+			Set<String> titles = new HashSet<String>();
+			for ( int i=0;i<15;i++ )
+				titles.add(randomWords(random, 1 + random.nextInt(4)));
+			Segmenter segmenter = segmenter(titles.toArray(new String[titles.size()]));
+
+			for ( int s=0;s<20;s++ ) {
+
+				String sentence = randomWords(random, 1 + random.nextInt(10));
+				String[] words = words(sentence);
+				List<Track> tracks = segmenter.split(words);
+
+				// the tracks cover the sentence in order, by known titles
+				StringBuilder joined = new StringBuilder();
+				for ( Track t : tracks ) {
+					if ( t.getUrl().length() > 0 )
+						assertEquals(true, titles.contains(t.getName()));
+					joined.append(t.getName()).append(' ');
+				}
+				assertEquals(sentence, joined.toString().trim());
+
+				assertEquals(sentence, bestCost(titles, words, 0), cost(tracks, words.length));
+			}
+		}
+	}
+
+	private static long cost(List<Track> tracks, int n) {
+		long cost = 0;
+		for ( Track t : tracks )
+			cost += t.getUrl().length() == 0 ? n + 1 : 1;
+		return cost;
+	}
+
+	/**
+	 * Tries all splits of words[from..].
+	 */
+	private static long bestCost(Set<String> titles, String[] words, int from) {
+
+		int n = words.length;
+		if ( from == n )
+			return 0;
+
+		long best = bestCost(titles, words, from + 1) + n + 1;
+		StringBuilder title = new StringBuilder();
+		for ( int to=from;to<n;to++ ) {
+			if ( to > from )
+				title.append(' ');
+			title.append(words[to]);
+			if ( titles.contains(title.toString()) )
+				best = Math.min(best, bestCost(titles, words, to + 1) + 1);
+		}
+		return best;
+	}
+
+	private static String randomWords(Random random, int n) {
+		StringBuilder s = new StringBuilder();
+		for ( int i=0;i<n;i++ ) {
+			if ( i > 0 )
+				s.append(' ');
+			s.append((char) ('a' + random.nextInt(4)));
+		}
+		return s.toString();
+	}
+
+	private static Segmenter segmenter(String... titles) {
+		TrackTreeRoot tree = new TrackTreeRoot();
+		List<Track> tracks = new ArrayList<Track>();
+		for ( String title : titles )
+			tracks.add(new Track(title, "spotify:track:" + title));
+		tree.importTracks(tracks);
+		return new Segmenter(tree);
+	}
+
+	private static String[] words(String sentence) {
+		return sentence.split(" ");
+	}
+
+	private static String splitToString(Segmenter segmenter, String sentence) {
+		StringBuilder s = new StringBuilder();
+		for ( Track t : segmenter.split(words(sentence)) )
+			s.append('[').append(t.getName()).append(']');
+		return s.toString();
+	}
+
+}
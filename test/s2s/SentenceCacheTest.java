@@ -0,0 +1,161 @@
+package s2s;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author rzvoncek
+ *
+ */
+
+public class SentenceCacheTest {
+
+	private static final String SENTENCE = "love me do";
+
+	private TrackTreeRoot tree;
+	private Segmenter segmenter;
+	private SentenceCache cache;
+	private String[] words;
+
+	@Before
+	public void setUp() {
+		tree = new TrackTreeRoot();
+		segmenter = new Segmenter(tree);
+		cache = new SentenceCache(10, tree);
+		words = SentenceSplitter.splitToWords(SENTENCE);
+
+		tree.importTracks(tracks("love", "me do", "yesterday"));
+	}
+
+	@Test
+	public void returnsSplitWhileWordsAreUnchanged() {
+
+		List<Track> split = split();
+		cache.put(SENTENCE, split, tree.getVersion());
+
+		// titles not starting with a word of the sentence don't matter
+		tree.importTracks(tracks("yesterday once more", "help"));
+		assertTrue(tree.getStamp(words) < tree.getVersion());
+
+		TrackList cached = cache.get(SENTENCE, words);
+		assertNotNull(cached);
+		assertNotSame(split, cached);
+		assertEquals(InputReader.format(split), InputReader.format(cached));
+		assertEquals(1, cache.getHits());
+		assertEquals(0, cache.getInvalidations());
+	}
+
+	@Test
+	public void importOfOneOfTheWordsDropsEntry() {
+
+		cache.put(SENTENCE, split(), tree.getVersion());
+
+		// a title starting with the second word
+		tree.importTracks(tracks("me do love"));
+		assertTrue(tree.getStamp(words) == tree.getVersion());
+
+		assertNull(cache.get(SENTENCE, words));
+		assertEquals(1, cache.getInvalidations());
+		assertEquals(1, cache.getMisses());
+		assertEquals(0, cache.size());
+
+		// recomputed by the new titles and cached again
+		long version = tree.getVersion();
+		List<Track> split = split();
+		assertEquals(2, split.size());
+		cache.put(SENTENCE, split, version);
+
+		assertEquals(InputReader.format(split), InputReader.format(cache.get(SENTENCE, words)));
+		assertEquals(1, cache.getHits());
+	}
+
+	@Test
+	public void entrySplitBeforeImportIsStale() {
+
+		// the version was read before an import the split may have missed
+		long version = tree.getVersion();
+		List<Track> split = split();
+		tree.importTracks(tracks("do it again"));
+		cache.put(SENTENCE, split, version);
+
+		assertNull(cache.get(SENTENCE, words));
+		assertEquals(1, cache.getInvalidations());
+	}
+
+	@Test
+	public void leastRecentlyUsedIsEvicted() {
+
+		cache = new SentenceCache(2, tree);
+		long version = tree.getVersion();
+		String[] other = SentenceSplitter.splitToWords("yesterday");
+
+		cache.put("a", split(), version);
+		cache.put("b", split(), version);
+		assertNotNull(cache.get("a", words));
+		cache.put("yesterday", segmenter.split(other), version);
+
+		assertEquals(2, cache.size());
+		assertNull(cache.get("b", words));
+		assertNotNull(cache.get("a", words));
+		assertEquals(0, cache.getInvalidations());
+	}
+
+	@Test
+	public void partialSplitIsNotCached() throws Exception {
+
+		StandInServer server = new StandInServer();
+		String[] args = { "-url", server.getUrl(), "-rate", "1000", "-burst", "100",
+				"-sentenceCache", "10" };
+
+		// loads the classes of the remote path, which takes longer than the deadline
+		SentenceSplitter splitter = new SentenceSplitter(Options.parse(args));
+		splitter.splitToTracks("yesterday");
+		splitter.shutDown();
+
+		args = Arrays.copyOf(args, args.length + 2);
+		args[args.length - 2] = "-deadline";
+		args[args.length - 1] = "300";
+		splitter = new SentenceSplitter(Options.parse(args));
+		try {
+			server.setLatency(1000);
+			TrackList partial = splitter.splitToTracks(SENTENCE);
+			assertTrue(partial.isPartial());
+			assertEquals(0, splitter.getSentenceCache().size());
+
+			// answered in time now, the same sentence is split completely and cached
+			server.setLatency(0);
+			Thread.sleep(1000);
+			TrackList complete = splitter.splitToTracks(SENTENCE);
+			assertTrue(!complete.isPartial());
+			assertEquals(1, splitter.getSentenceCache().size());
+
+			TrackList cached = splitter.splitToTracks(SENTENCE);
+			assertEquals(InputReader.format(complete), InputReader.format(cached));
+			assertEquals(1, splitter.getSentenceCache().getHits());
+		} finally {
+			splitter.shutDown();
+			server.stop();
+		}
+	}
+
+	private List<Track> split() {
+		return segmenter.split(words);
+	}
+
+	private static List<Track> tracks(String... names) {
+		Track[] tracks = new Track[names.length];
+		for ( int i=0;i<names.length;i++ )
+			tracks[i] = new Track(names[i], "spotify:track:" + names[i].replace(' ', '-'));
+		return Arrays.asList(tracks);
+	}
+
+}
@@ -0,0 +1,231 @@
+package s2s;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author rzvoncek
+ *
+ */
+
+public class SplitServerTest {
+
+	private SplitServer server;
+	private final ExecutorService clients = Executors.newCachedThreadPool();
+
+	// held closed, the stub splitter blocks every sentence until released
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final CountDownLatch entered = new CountDownLatch(1);
+	private volatile boolean blocking;
+
+	@After
+	public void tearDown() {
+		release.countDown();
+		if ( server != null )
+			server.stop();
+		clients.shutdownNow();
+	}
+
+	@Test
+	public void splitsSentence() throws Exception {
+
+		start(1, 1);
+
+		Response response = get("q=" + URLEncoder.encode("Love me do", "UTF-8"));
+
+		assertEquals(200, response.status);
+		assertEquals(InputReader.format(split(InputReader.sanitize("Love me do"))), response.body);
+		assertEquals("false", response.connection.getHeaderField("X-Partial"));
+		assertMillis(response.connection.getHeaderField("X-Queue-Millis"));
+		assertMillis(response.connection.getHeaderField("X-Split-Millis"));
+	}
+
+	@Test
+	public void reportsPartialSplit() throws Exception {
+
+		start(1, 1);
+
+		Response response = get("q=slow+partial");
+
+		assertEquals(200, response.status);
+		assertEquals("true", response.connection.getHeaderField("X-Partial"));
+	}
+
+	@Test
+	public void splitsPostedSentence() throws Exception {
+
+		start(1, 1);
+
+		HttpURLConnection connection = open("");
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		OutputStream out = connection.getOutputStream();
+		out.write("Café über\r\n".getBytes("UTF-8"));
+		out.close();
+
+		Response response = new Response(connection);
+		assertEquals(200, response.status);
+		assertEquals(InputReader.format(split(InputReader.sanitize("Café über"))), response.body);
+	}
+
+	@Test
+	public void refusesBadRequests() throws Exception {
+
+		start(1, 1);
+
+		assertBadRequest("missing q parameter\n", "");
+		assertBadRequest("missing q parameter\n", "x=love");
+		// a malformed escape is already refused when the server parses the URI
+		assertEquals(400, get("q=%zz").status);
+		assertEquals(400, get("q=love%e").status);
+
+		HttpURLConnection connection = open("q=love");
+		connection.setRequestMethod("PUT");
+		Response response = new Response(connection);
+		assertEquals(405, response.status);
+		assertEquals("GET, POST", connection.getHeaderField("Allow"));
+
+		HttpURLConnection other = (HttpURLConnection) new URL("http://127.0.0.1:"
+				+ server.getPort() + "/other?q=love").openConnection();
+		assertEquals(404, new Response(other).status);
+	}
+
+	@Test
+	public void shedsLoadWhenQueueIsFull() throws Exception {
+
+		blocking = true;
+		start(1, 1);
+
+		// the first request holds the only worker
+		Future<Response> first = clients.submit(request("q=first"));
+		assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+		// one of the next two waits in the queue, the other is refused
+		Future<Response> second = clients.submit(request("q=second"));
+		Future<Response> third = clients.submit(request("q=third"));
+
+		Response refused = null;
+		Future<Response> queued = null;
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while ( refused == null && System.nanoTime() < deadline ) {
+			if ( second.isDone() ) {
+				refused = second.get();
+				queued = third;
+			} else if ( third.isDone() ) {
+				refused = third.get();
+				queued = second;
+			} else {
+				Thread.sleep(10);
+			}
+		}
+
+		assertNotNull(refused);
+		assertEquals(503, refused.status);
+		assertEquals("1", refused.connection.getHeaderField("Retry-After"));
+
+		release.countDown();
+		assertEquals(200, first.get(5, TimeUnit.SECONDS).status);
+		assertEquals(200, queued.get(5, TimeUnit.SECONDS).status);
+	}
+
+	private void start(int threads, int queueSize) throws IOException {
+
+		server = new SplitServer(new SentenceSplitter() {
+			@Override
+			public TrackList splitToTracks(String sentence) {
+				if ( blocking ) {
+					entered.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				return split(sentence);
+			}
+		}, 0, threads, queueSize);
+		server.start();
+	}
+
+	/**
+	 * One track per word, partial when the sentence mentions it.
+	 */
+	private static TrackList split(String sentence) {
+		TrackList tracks = new TrackList();
+		for ( String word : sentence.split(" ") )
+			tracks.add(new Track(word, "spotify:track:" + word));
+		tracks.setPartial(sentence.contains("partial"));
+		return tracks;
+	}
+
+	private void assertBadRequest(String message, String query) throws IOException {
+		Response response = get(query);
+		assertEquals(400, response.status);
+		assertEquals(message, response.body);
+	}
+
+	private static void assertMillis(String value) {
+		assertNotNull(value);
+		assertTrue(value, Double.parseDouble(value) >= 0);
+	}
+
+	private HttpURLConnection open(String query) throws IOException {
+		return (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort()
+				+ "/split" + (query.isEmpty() ? "" : "?" + query)).openConnection();
+	}
+
+	private Response get(String query) throws IOException {
+		return new Response(open(query));
+	}
+
+	private Callable<Response> request(final String query) {
+		return new Callable<Response>() {
+			@Override
+			public Response call() throws IOException {
+				return get(query);
+			}
+		};
+	}
+
+	private static class Response {
+
+		final HttpURLConnection connection;
+		final int status;
+		final String body;
+
+		Response(HttpURLConnection connection) throws IOException {
+
+			this.connection = connection;
+			status = connection.getResponseCode();
+
+			InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			if ( in != null ) {
+				byte[] buffer = new byte[4096];
+				for ( int n;(n = in.read(buffer)) != -1; )
+					out.write(buffer, 0, n);
+				in.close();
+			}
+			body = out.toString("UTF-8");
+		}
+	}
+
+}
@@ -0,0 +1,191 @@
+package s2s;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Remote queries of SpotifyAdapter against local stand-in servers with
+ * injected latency.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class SpotifyAdapterTest {
+
+	private StandInServer primary;
+	private StandInServer hedge;
+	private SpotifyAdapter spotify;
+
+	@Before
+	public void setUp() throws Exception {
+		primary = new StandInServer();
+		hedge = new StandInServer();
+		spotify = new SpotifyAdapter(null, new HttpTrackSource(primary.getUrl(), 4, 8, 0),
+				new RateLimiter(1000, 100));
+	}
+
+	@After
+	public void tearDown() {
+		spotify.shutDown();
+		primary.stop();
+		hedge.stop();
+	}
+
+	@Test
+	public void concurrentQueriesShareOneRequest() throws Exception {
+
+		primary.setLatency(200);
+
+		CompletableFuture<List<Track>> first = spotify.remoteQuery("Same Query");
+		CompletableFuture<List<Track>> second = spotify.remoteQuery("same  query ");
+		assertSame(first, second);
+		assertEquals(1, spotify.getInFlightCount());
+
+		List<Track> tracks = first.get(5, TimeUnit.SECONDS);
+		assertEquals(2, tracks.size());
+		assertEquals("same", tracks.get(0).getName());
+		assertEquals(1, primary.getQueries().size());
+
+		// a completed request is not shared any more
+		spotify.remoteQuery("same query").get(5, TimeUnit.SECONDS);
+		assertEquals(2, primary.getQueries().size());
+		assertEquals(0, spotify.getInFlightCount());
+	}
+
+	@Test
+	public void releasedQueryIsCancelled() throws Exception {
+
+		primary.setLatency(200);
+
+		CompletableFuture<List<Track>> first = spotify.remoteQuery("one");
+		CompletableFuture<List<Track>> second = spotify.remoteQuery("one");
+
+		spotify.release("one", first);
+		assertFalse(first.isCancelled());
+
+		spotify.release("one", second);
+		assertTrue(first.isCancelled());
+		assertEquals(0, spotify.getInFlightCount());
+	}
+
+	@Test
+	public void slowRequestIsHedged() throws Exception {
+
+		learnLatency(10);
+
+		// a warm-up request slower than usual may have been hedged too
+		Thread.sleep(100);
+		long hedges = spotify.getHedgeCount();
+		long wins = spotify.getHedgeWinCount();
+		int hedgeQueries = hedge.getQueries().size();
+
+		primary.setLatency(1000);
+		long start = System.nanoTime();
+		List<Track> tracks = spotify.remoteQuery("slow").get(5, TimeUnit.SECONDS);
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		assertEquals(1, tracks.size());
+		assertTrue("took " + millis + " ms", millis < 500);
+		assertEquals(hedges + 1, spotify.getHedgeCount());
+		assertEquals(hedgeQueries + 1, hedge.getQueries().size());
+
+		// the win is counted right after the result is handed over
+		for ( int i=0;i<100 && spotify.getHedgeWinCount() == wins;i++ )
+			Thread.sleep(10);
+		assertEquals(wins + 1, spotify.getHedgeWinCount());
+	}
+
+	@Test
+	public void noHedgeWithoutLatencyHistory() throws Exception {
+
+		spotify.setHedging(new HttpTrackSource(hedge.getUrl(), 4, 8, 0), 90);
+		primary.setLatency(300);
+
+		spotify.remoteQuery("first").get(5, TimeUnit.SECONDS);
+
+		assertEquals(0, spotify.getHedgeCount());
+		assertEquals(0, hedge.getQueries().size());
+	}
+
+	@Test
+	public void throttledRequestIsNotHedged() throws Exception {
+		assertThrottledNotHedged();
+	}
+
+	@Test
+	public void throttledAsyncRequestIsNotHedged() throws Exception {
+		spotify.shutDown();
+		spotify = new SpotifyAdapter(null, new AsyncHttpTrackSource(primary.getUrl()),
+				new RateLimiter(1000, 100));
+		assertThrottledNotHedged();
+	}
+
+	private void assertThrottledNotHedged() throws Exception {
+
+		learnLatency(10);
+		Thread.sleep(100);
+		long hedges = spotify.getHedgeCount();
+
+		// the hedge delay starts once the request got its permit
+		spotify.getRateLimiter().penalize(300);
+		spotify.remoteQuery("throttled").get(5, TimeUnit.SECONDS);
+
+		assertEquals(hedges, spotify.getHedgeCount());
+	}
+
+	@Test
+	public void errorStatusIsNotCached() throws Exception {
+
+		QueryCache cache = new QueryCache(100, 60000, 60000, null);
+		spotify.setQueryCache(cache);
+		primary.setStatus(500);
+
+		assertNull(spotify.remoteQuery("broken").get(5, TimeUnit.SECONDS));
+		assertNull(cache.get(SpotifyAdapter.normalizeQuery("broken")));
+
+		// the query is sent again once the server recovers
+		primary.setStatus(200);
+		assertNotNull(spotify.remoteQuery("broken").get(5, TimeUnit.SECONDS));
+		assertNotNull(cache.get("broken"));
+	}
+
+	@Test
+	public void truncatedBodyIsNotCached() throws Exception {
+
+		HttpTrackSource source = new HttpTrackSource(primary.getUrl(), 4, 8, 0);
+		source.setSocketTimeout(100);
+		spotify.shutDown();
+		spotify = new SpotifyAdapter(null, source, new RateLimiter(1000, 100));
+		QueryCache cache = new QueryCache(100, 60000, 60000, null);
+		spotify.setQueryCache(cache);
+		primary.setStall(300);
+
+		assertNull(spotify.remoteQuery("cut off here").get(5, TimeUnit.SECONDS));
+		assertNull(cache.get("cut off here"));
+	}
+
+	/**
+	 * Turns hedging on and sends enough requests of the given latency for
+	 * the percentile to be known.
+	 */
+	private void learnLatency(long millis) throws Exception {
+		spotify.setHedging(new HttpTrackSource(hedge.getUrl(), 4, 8, 0), 90);
+		primary.setLatency(millis);
+		for ( int i=0;i<25;i++ )
+			spotify.remoteQuery("warm" + i).get(5, TimeUnit.SECONDS);
+	}
+
+}
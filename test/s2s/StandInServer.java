@@ -0,0 +1,146 @@
+package s2s;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in for the Spotify search endpoint, on the loopback interface.
+ *
+ * Answers every query with one track per query word, named by the word,
+ * after the injected latency. The status can be changed to simulate a
+ * failing endpoint and the body can be cut off after the first track, with
+ * a stall before the connection is closed.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class StandInServer {
+
+	private final HttpServer server;
+	private final ExecutorService executor;
+	private final List<String> queries;
+
+	private volatile long latencyMillis;
+	private volatile int status = 200;
+	private volatile long stallMillis = -1;
+
+	public StandInServer() throws IOException {
+
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		executor = Executors.newCachedThreadPool();
+		queries = new CopyOnWriteArrayList<String>();
+
+		server.createContext("/search", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					answer(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		server.setExecutor(executor);
+		server.start();
+	}
+
+	/**
+	 * @return search URL the encoded query is appended to
+	 */
+	public String getUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/search?q=";
+	}
+
+	/**
+	 * @param latencyMillis time to wait before answering
+	 */
+	public void setLatency(long latencyMillis) {
+		this.latencyMillis = latencyMillis;
+	}
+
+	/**
+	 * @param status HTTP status of the answers
+	 */
+	public void setStatus(int status) {
+		this.status = status;
+	}
+
+	/**
+	 * @param stallMillis cut the body off after the first track and wait
+	 * 		this long before closing, -1 to send complete bodies
+	 */
+	public void setStall(long stallMillis) {
+		this.stallMillis = stallMillis;
+	}
+
+	/**
+	 * @return queries received, in the order they arrived
+	 */
+	public List<String> getQueries() {
+		return queries;
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	private void answer(HttpExchange exchange) throws IOException {
+
+		String query = URLDecoder.decode(exchange.getRequestURI().getRawQuery().substring(2), "UTF-8");
+		queries.add(query);
+
+		sleep(latencyMillis);
+
+		StringBuilder body = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?>"
+				+ "<tracks xmlns=\"http://www.spotify.com/ns/music/1\">");
+		for ( String word : query.split(" ") ) {
+			body.append("<track href=\"spotify:track:").append(word).append("\"><name>")
+				.append(word).append("</name></track>");
+		}
+		body.append("</tracks>");
+
+		byte[] bytes = body.toString().getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", "text/xml");
+		exchange.getResponseHeaders().set("Cache-Control", "no-store");
+		if ( status == 429 )
+			exchange.getResponseHeaders().set("Retry-After", "0");
+
+		OutputStream out = exchange.getResponseBody();
+		if ( stallMillis < 0 ) {
+			exchange.sendResponseHeaders(status, bytes.length);
+			out.write(bytes);
+		} else {
+			// the first track and a half of the second one
+			int cut = body.indexOf("</track>") + "</track>".length() + 20;
+			exchange.sendResponseHeaders(status, 0);
+			out.write(bytes, 0, Math.min(cut, bytes.length));
+			out.flush();
+			sleep(stallMillis);
+		}
+		out.close();
+	}
+
+	private static void sleep(long millis) {
+		if ( millis <= 0 )
+			return;
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,70 @@
+package s2s;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Compares the tokenizer to the regular expression sanitizing it replaced.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class TokenizerTest {
+
+	/** separators, the removed and replaced characters and tricky lower cases */
+	private static final String[] ALPHABET = {
+		"a", "z", "A", "Z", "0", " ", " ", " ", ",", ":", "`", "'", "’", "-",
+		"é", "É", "ß", "İ", "Σ", "σ", "𐐀", "\uD801"
+	};
+
+	@Test
+	public void matchesOldSplit() {
+
+		Random random = new Random(2013);
+
+		for ( int i=0;i<100000;i++ ) {
+
+			StringBuilder s = new StringBuilder();
+			int n = random.nextInt(12);
+			for ( int j=0;j<n;j++ )
+				s.append(ALPHABET[random.nextInt(ALPHABET.length)]);
+
+			String sentence = s.toString();
+			assertArrayEquals(sentence, oldSplit(sentence), Tokenizer.split(sentence));
+			assertEquals(sentence, oldSanitize(sentence), Tokenizer.normalize(sentence));
+		}
+	}
+
+	@Test
+	public void normalizedTextIsReturnedAsIs() {
+		String s = "already normalized don't";
+		assertSame(s, Tokenizer.normalize(s));
+	}
+
+	@Test
+	public void wordsAreSpansOfBuffer() {
+
+		Tokenizer tokenizer = Tokenizer.get();
+
+		assertEquals(3, tokenizer.tokenize("Hello,  World"));
+		assertEquals("hello", tokenizer.word(0));
+		assertEquals(0, tokenizer.length(1));
+		assertEquals("world", new String(tokenizer.chars(), tokenizer.start(2), tokenizer.length(2)));
+	}
+
+	private static String oldSanitize(String sentence) {
+		return sentence.toLowerCase().replaceAll(",", "").replace('’', '\'')
+				.replaceAll("`", "'").replaceAll(":", "");
+	}
+
+	private static String[] oldSplit(String sentence) {
+		return oldSanitize(sentence).split(" ");
+	}
+
+}
@@ -0,0 +1,153 @@
+package s2s;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Keeps the tree in a small memory budget and checks that the evicted
+ * titles are spilled and found again.
+ *
+ * @author rzvoncek
+ *
+ */
+
+public class TrackTreeRootTest {
+
+	private static final int TITLES = 400;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private List<Track> tracks;
+	private long budget;
+
+	@Before
+	public void setUp() {
+
+		// every title starts a branch of its own
+		tracks = new ArrayList<Track>();
+		for ( int i=0;i<TITLES;i++ ) {
+			String title = "first" + i + " love me do " + i % 7;
+			tracks.add(new Track(title, url(title)));
+		}
+
+		// room for about a quarter of the titles
+		TrackTreeRoot unlimited = new TrackTreeRoot();
+		unlimited.importTracks(tracks);
+		budget = treeBytes(unlimited) / 4;
+	}
+
+	@Test
+	public void evictedTitlesAreSpilledAndRestored() throws Exception {
+
+		TrackTreeRoot tree = new TrackTreeRoot();
+		tree.setMemoryBudget(budget);
+		tree.setSpill(new TrackSpill(folder.newFile()));
+		tree.importTracks(tracks);
+
+		assertTrue(tree.getEvictionCount() > 0);
+		assertTrue(tree.getSpill().size() > 0);
+		assertTrue(treeBytes(tree) <= budget);
+		assertTrue(tree.getTrackCount() < TITLES);
+
+		// the spilled titles are visited as well
+		final Set<String> visited = new HashSet<String>();
+		tree.forEachTrack(new TrackTreeRoot.TrackVisitor() {
+			@Override
+			public void visit(String[] words, Track t) {
+				visited.add(t.getName());
+			}
+		});
+		assertEquals(TITLES, visited.size());
+
+		// looked up in the import order, so the restores evict again
+		for ( Track t : tracks ) {
+			String[] words = t.getName().split(" ");
+			SentencePrefix prefix = tree.findLongestPrefix(words);
+			assertNotNull(t.getName(), prefix.getLastTrack());
+			assertEquals(t.getUrl(), prefix.getLastTrack().getUrl());
+			assertEquals(words.length, prefix.getPrefixLen());
+			assertTrue(treeBytes(tree) <= budget);
+		}
+
+		for ( Track t : tracks ) {
+			String[] words = t.getName().split(" ");
+			Track[] matches = new Track[words.length + 1];
+			assertEquals(words.length, tree.findTitles(words,
+					tree.getDictionary().lookup(words), 0, matches));
+			assertEquals(t.getUrl(), matches[words.length].getUrl());
+		}
+	}
+
+	@Test
+	public void evictedTitlesAreDroppedWithoutSpill() {
+
+		TrackTreeRoot tree = new TrackTreeRoot();
+		tree.setMemoryBudget(budget);
+		tree.importTracks(tracks);
+
+		assertTrue(tree.getEvictionCount() > 0);
+		assertTrue(treeBytes(tree) <= budget);
+
+		// the least recently used go first, the last title is still there
+		Track last = tracks.get(TITLES - 1);
+		assertEquals(last.getUrl(), tree.findLongestPrefix(last.getName().split(" "))
+				.getLastTrack().getUrl());
+		SentencePrefix first = tree.findLongestPrefix(tracks.get(0).getName().split(" "));
+		assertTrue(first == null || first.getLastTrack() == null);
+	}
+
+	@Test
+	public void dictionaryDoesNotTriggerEviction() {
+
+		TrackTreeRoot tree = new TrackTreeRoot();
+		tree.setMemoryBudget(budget);
+
+		// words learned from titles evicted long ago
+		for ( int i=0;tree.getDictionary().getBytes() <= 2 * budget;i++ )
+			tree.getDictionary().intern("word" + i);
+
+		tree.importTracks(tracks.subList(0, 10));
+
+		assertEquals(0, tree.getEvictionCount());
+		assertEquals(10, tree.getTrackCount());
+		assertTrue(tree.getUsedBytes() > budget);
+	}
+
+	@Test
+	public void unlimitedTreeKeepsEverything() {
+
+		TrackTreeRoot tree = new TrackTreeRoot();
+		tree.importTracks(tracks);
+
+		assertEquals(0, tree.getEvictionCount());
+		assertEquals(TITLES, tree.getTrackCount());
+		for ( Track t : tracks )
+			assertNotNull(tree.findLongestPrefix(t.getName().split(" ")).getLastTrack());
+		assertNull(tree.findLongestPrefix(new String[] { "unknown" }));
+	}
+
+	/**
+	 * @return bytes counted against the budget
+	 */
+	private static long treeBytes(TrackTreeRoot tree) {
+		return tree.getUsedBytes() - tree.getDictionary().getBytes();
+	}
+
+	private static String url(String title) {
+		return "spotify:track:" + title.replace(' ', '-');
+	}
+
+}